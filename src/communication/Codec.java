@@ -0,0 +1,114 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import recipes_service.communication.BinaryCodec;
+
+/**
+ * Encoding of the objects sent through ObjectOutputStream_DS and
+ * received from ObjectInputStream_DS.
+ * 
+ * The first byte of a stream is the id of the codec used by the
+ * writer, so that the reader uses the same one. New codecs are
+ * plugged in with register().
+ */
+public abstract class Codec {
+	private static final Map<Integer, Codec> codecsById = new ConcurrentHashMap<Integer, Codec>();
+	private static final Map<String, Codec> codecsByName = new ConcurrentHashMap<String, Codec>();
+	private static volatile Codec defaultCodec;
+
+	static {
+		register(new JavaSerializationCodec());
+		register(new BinaryCodec());
+		defaultCodec = get("binary");
+	}
+
+	/**
+	 * Writes objects into a stream
+	 */
+	public interface Encoder {
+		void writeObject(Object obj) throws IOException;
+		/**
+		 * objects written from now on do not refer to the ones already written
+		 */
+		void reset() throws IOException;
+		void close() throws IOException;
+	}
+
+	/**
+	 * Reads the objects written by the Encoder of the same codec
+	 */
+	public interface Decoder {
+		Object readObject() throws IOException, ClassNotFoundException;
+		void close() throws IOException;
+	}
+
+	/**
+	 * @return the id written at the beginning of the streams (0..255)
+	 */
+	public abstract int getId();
+
+	public abstract String getName();
+
+	public abstract Encoder newEncoder(OutputStream out) throws IOException;
+
+	public abstract Decoder newDecoder(InputStream in) throws IOException;
+
+	public static void register(Codec codec){
+		codecsById.put(codec.getId(), codec);
+		codecsByName.put(codec.getName(), codec);
+	}
+
+	/**
+	 * @return the codec with identifier id (null if there is none)
+	 */
+	public static Codec get(int id){
+		return codecsById.get(id);
+	}
+
+	/**
+	 * @return the codec named name (null if there is none)
+	 */
+	public static Codec get(String name){
+		return codecsByName.get(name);
+	}
+
+	/**
+	 * @return codec used by the new ObjectOutputStream_DS
+	 */
+	public static Codec getDefault(){
+		return defaultCodec;
+	}
+
+	public static void setDefault(Codec codec){
+		defaultCodec = codec;
+	}
+
+	public String toString(){
+		return getName();
+	}
+}
@@ -0,0 +1,225 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * ObjectInputStream_DS and ObjectOutputStream_DS on a non-blocking SocketChannel,
+ * to be used from a Selector loop.
+ * 
+ * Received bytes are kept until a whole frame (see FrameOutputStream) has
+ * arrived, and each frame holds exactly one object, so an object is only
+ * decoded once all its bytes are available and decoding never blocks.
+ * Written objects are kept in memory until the channel accepts them (flush()).
+ */
+public class FrameChannel {
+	private final SocketChannel channel;
+
+	// received bytes: [0, released) are readable by the decoder (position is the
+	// next one to read) and [released, received) wait until their frame is complete
+	private byte[] input = new byte[8192];
+	private int position = 0;
+	private int released = 0;
+	private int received = 0;
+	private ObjectInputStream_DS in;
+
+	private final PendingOutput output = new PendingOutput();
+	private final ObjectOutputStream_DS out;
+
+	public FrameChannel(SocketChannel channel) throws IOException{
+		this.channel = channel;
+		channel.configureBlocking(false);
+		this.out = new ObjectOutputStream_DS(output);
+	}
+
+	public SocketChannel getChannel(){
+		return channel;
+	}
+
+	/**
+	 * objects written to this stream are sent by flush()
+	 */
+	public ObjectOutputStream_DS getOutputStream(){
+		return out;
+	}
+
+	/**
+	 * reads the bytes that are available in the channel without blocking
+	 * @return false if the channel has reached the end of the stream
+	 */
+	public boolean receive() throws IOException{
+		while (true){
+			if (received == input.length){
+				compact();
+				if (received == input.length){
+					input = Arrays.copyOf(input, input.length * 2);
+				}
+			}
+			int n = channel.read(ByteBuffer.wrap(input, received, input.length - received));
+			if (n < 0){
+				return false;
+			}
+			if (n == 0){
+				return true;
+			}
+			received += n;
+		}
+	}
+
+	/**
+	 * @return next received object, or null if it has not completely arrived yet
+	 */
+	public Object readObject() throws IOException, ClassNotFoundException{
+		if (in == null){
+			// the stream starts with the id of the codec and, for some codecs, a header frame
+			int frame = frameLength(1);
+			if (frame < 0){
+				return null;
+			}
+			released += 1 + frame;
+			in = new ObjectInputStream_DS(new ReleasedInput());
+			if (position == released){
+				// the frame was the header of the codec
+				return readObject();
+			}
+			return in.readObject();
+		}
+		int frame = frameLength(0);
+		if (frame < 0){
+			return null;
+		}
+		released += frame;
+		return in.readObject();
+	}
+
+	/**
+	 * writes to the channel as many pending bytes as it accepts
+	 * @return true if all the written objects have been sent
+	 */
+	public boolean flush() throws IOException{
+		return output.send();
+	}
+
+	public void close(){
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Auxiliary methods
+	 */
+
+	/**
+	 * @param skip: bytes before the frame
+	 * @return length of the frame that starts at released + skip, or -1 if it is not complete
+	 */
+	private int frameLength(int skip){
+		int i = released + skip;
+		long header = 0;
+		for (int shift = 0; ; shift += 7){
+			if (i >= received || shift > 63){
+				return -1;
+			}
+			int b = input[i++] & 0xFF;
+			header |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0){
+				break;
+			}
+		}
+		long end = i + (header >>> 1);
+		if ((header & 1) != 0){
+			// compressed frames also carry their uncompressed length
+			do{
+				if (i >= received){
+					return -1;
+				}
+				end++;
+			} while ((input[i++] & 0x80) != 0);
+		}
+		return end <= received ? (int) (end - released - skip) : -1;
+	}
+
+	// drops the bytes already read by the decoder
+	private void compact(){
+		if (position == 0){
+			return;
+		}
+		System.arraycopy(input, position, input, 0, received - position);
+		released -= position;
+		received -= position;
+		position = 0;
+	}
+
+	// bytes of the complete frames, as read by the decoder
+	private class ReleasedInput extends InputStream {
+		public int read(){
+			return position < released ? input[position++] & 0xFF : -1;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException{
+			if (len == 0){
+				return 0;
+			}
+			if (position == released){
+				// a frame always contains a whole object
+				throw new EOFException("Incomplete frame");
+			}
+			int n = Math.min(len, released - position);
+			System.arraycopy(input, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		public int available(){
+			return released - position;
+		}
+	}
+
+	// written bytes that have not been accepted by the channel yet
+	private class PendingOutput extends ByteArrayOutputStream {
+		private int sent = 0;
+
+		PendingOutput(){
+			super(8192);
+		}
+
+		synchronized boolean send() throws IOException{
+			if (sent < count){
+				sent += channel.write(ByteBuffer.wrap(buf, sent, count - sent));
+			}
+			if (sent == count){
+				reset();
+				sent = 0;
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import util.CompactIO;
+
+/**
+ * Reads the frames written by a FrameOutputStream and returns their
+ * (uncompressed) bytes as a continuous stream.
+ */
+class FrameInputStream extends InputStream {
+	private final DataInputStream in;
+	// bytes of the current frame
+	private byte[] frame = new byte[1024];
+	private int position = 0;
+	private int limit = 0;
+	// created when the first compressed frame is received
+	private Inflater inflater;
+	private byte[] compressed = new byte[1024];
+
+	FrameInputStream(InputStream in){
+		this.in = new DataInputStream(new BufferedInputStream(in, 8192));
+	}
+
+	public int read() throws IOException{
+		if (!nextFrame()){
+			return -1;
+		}
+		return frame[position++] & 0xFF;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException{
+		if (len == 0){
+			return 0;
+		}
+		if (!nextFrame()){
+			return -1;
+		}
+		int n = Math.min(len, limit - position);
+		System.arraycopy(frame, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	/**
+	 * bytes that can be read without blocking: the rest of the current frame
+	 */
+	public int available(){
+		return limit - position;
+	}
+
+	public void close() throws IOException{
+		if (inflater != null){
+			inflater.end();
+		}
+		in.close();
+	}
+
+	/**
+	 * reads frames until the current one has bytes left to read
+	 * @return false at the end of the stream
+	 */
+	private boolean nextFrame() throws IOException{
+		while (position == limit){
+			int first = in.read();
+			if (first < 0){
+				return false;
+			}
+			long header = first & 0x7F;
+			if ((first & 0x80) != 0){
+				header |= CompactIO.readVarLong(in) << 7;
+			}
+			int length = (int) (header >>> 1);
+			if ((header & 1) == 0){
+				frame = ensureCapacity(frame, length);
+				in.readFully(frame, 0, length);
+				limit = length;
+			} else{
+				int uncompressedLength = CompactIO.readVarInt(in);
+				compressed = ensureCapacity(compressed, length);
+				in.readFully(compressed, 0, length);
+				limit = inflate(length, uncompressedLength);
+			}
+			position = 0;
+		}
+		return true;
+	}
+
+	// decompresses length bytes of compressed into frame
+	private int inflate(int length, int uncompressedLength) throws IOException{
+		if (inflater == null){
+			inflater = new Inflater();
+		}
+		// room for the whole frame: all the input is consumed without growing frame
+		frame = ensureCapacity(frame, uncompressedLength + 1);
+		inflater.setInput(compressed, 0, length);
+		int n = 0;
+		try {
+			while (!inflater.needsInput()){
+				if (n == frame.length){
+					throw new StreamCorruptedException("Compressed frame longer than announced");
+				}
+				int inflated = inflater.inflate(frame, n, frame.length - n);
+				if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())){
+					throw new StreamCorruptedException("Unexpected end of compressed stream");
+				}
+				n += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new StreamCorruptedException(e.getMessage());
+		}
+		if (n != uncompressedLength){
+			throw new StreamCorruptedException("Compressed frame of "+n+" bytes ("+uncompressedLength+" expected)");
+		}
+		return n;
+	}
+
+	private static byte[] ensureCapacity(byte[] b, int length) throws StreamCorruptedException{
+		if (length < 0){
+			throw new StreamCorruptedException("Negative frame length");
+		}
+		return b.length >= length ? b : new byte[Math.max(length, b.length * 2)];
+	}
+}
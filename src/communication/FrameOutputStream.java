@@ -0,0 +1,129 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import util.CompactIO;
+
+/**
+ * Groups the bytes written for each object in a frame.
+ * 
+ * A frame is written as a varint (length << 1 | compressed) followed by
+ * length bytes. Compressed frames also carry their uncompressed length
+ * before the data. All the compressed frames of a stream are produced by
+ * the same Deflater (flushed at the end of each frame), so a frame can
+ * refer to data of the previous ones.
+ */
+class FrameOutputStream extends OutputStream {
+	private final DataOutputStream out;
+	// bytes of the current frame
+	private byte[] buffer = new byte[1024];
+	private int count = 0;
+	// null while frames are not compressed
+	private Deflater deflater;
+	private boolean compression = false;
+	// frames smaller than threshold are not compressed
+	private int threshold;
+	private byte[] compressed = new byte[1024];
+
+	FrameOutputStream(OutputStream out){
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 8192));
+	}
+
+	/**
+	 * @param compression: true to compress the frames written from now on
+	 * @param threshold: frames of less than threshold bytes are not compressed
+	 */
+	void setCompression(boolean compression, int threshold){
+		this.compression = compression;
+		this.threshold = threshold;
+	}
+
+	public void write(int b){
+		if (count == buffer.length){
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	public void write(byte[] b, int off, int len){
+		if (count + len > buffer.length){
+			buffer = Arrays.copyOf(buffer, Math.max(count + len, buffer.length * 2));
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	/**
+	 * frames are only sent by endFrame()
+	 */
+	public void flush(){
+	}
+
+	/**
+	 * sends the bytes written since the previous frame as a new frame
+	 */
+	void endFrame() throws IOException{
+		if (count == 0){
+			return;
+		}
+		if (compression && count >= threshold){
+			int length = deflate();
+			CompactIO.writeVarLong(out, ((long) length << 1) | 1);
+			CompactIO.writeVarInt(out, count);
+			out.write(compressed, 0, length);
+		} else{
+			CompactIO.writeVarLong(out, (long) count << 1);
+			out.write(buffer, 0, count);
+		}
+		out.flush();
+		count = 0;
+	}
+
+	public void close() throws IOException{
+		if (deflater != null){
+			deflater.end();
+		}
+		out.close();
+	}
+
+	// compresses the current frame into compressed and returns its length
+	private int deflate(){
+		if (deflater == null){
+			deflater = new Deflater(Deflater.BEST_SPEED);
+		}
+		deflater.setInput(buffer, 0, count);
+		int length = 0;
+		while (true){
+			length += deflater.deflate(compressed, length, compressed.length - length, Deflater.SYNC_FLUSH);
+			if (length < compressed.length){
+				return length;
+			}
+			compressed = Arrays.copyOf(compressed, compressed.length * 2);
+		}
+	}
+}
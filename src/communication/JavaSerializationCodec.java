@@ -0,0 +1,70 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Standard Java serialization (ObjectOutputStream and ObjectInputStream).
+ * Encodes any Serializable object.
+ */
+public class JavaSerializationCodec extends Codec {
+	public static final int ID = 0;
+
+	public int getId(){
+		return ID;
+	}
+
+	public String getName(){
+		return "java";
+	}
+
+	public Encoder newEncoder(OutputStream out) throws IOException{
+		final ObjectOutputStream oos = new ObjectOutputStream(out);
+		return new Encoder(){
+			public void writeObject(Object obj) throws IOException{
+				oos.writeObject(obj);
+			}
+			public void reset() throws IOException{
+				oos.reset();
+			}
+			public void close() throws IOException{
+				oos.close();
+			}
+		};
+	}
+
+	public Decoder newDecoder(InputStream in) throws IOException{
+		final ObjectInputStream ois = new ObjectInputStream(in);
+		return new Decoder(){
+			public Object readObject() throws IOException, ClassNotFoundException{
+				return ois.readObject();
+			}
+			public void close() throws IOException{
+				ois.close();
+			}
+		};
+	}
+}
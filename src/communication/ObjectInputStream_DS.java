@@ -20,9 +20,10 @@
 
 package communication;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
 
 import recipes_service.activity_simulation.SimulationData;
 
@@ -35,10 +36,19 @@ import recipes_service.activity_simulation.SimulationData;
  *
  */
 public class ObjectInputStream_DS {
-	private ObjectInputStream in;
+	private Codec.Decoder in;
 	
 	public ObjectInputStream_DS(InputStream inStream) throws IOException{
-		in = new ObjectInputStream(inStream);
+		// the stream starts with the id of the codec used by the writer
+		int id = inStream.read();
+		if (id < 0){
+			throw new EOFException();
+		}
+		Codec codec = Codec.get(id);
+		if (codec == null){
+			throw new StreamCorruptedException("Unknown codec: " + id);
+		}
+		in = codec.newDecoder(new FrameInputStream(inStream));
 	}
 
 	public Object readObject() throws IOException, ClassNotFoundException{
@@ -21,7 +21,6 @@
 package communication;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 import recipes_service.activity_simulation.SimulationData;
@@ -35,15 +34,51 @@ import recipes_service.activity_simulation.SimulationData;
  *
  */
 public class ObjectOutputStream_DS {
-	private ObjectOutputStream out;
+	private Codec.Encoder out;
+	// each object is sent in its own (optionally compressed) frame
+	private FrameOutputStream frames;
 	
 	public ObjectOutputStream_DS(OutputStream outStream) throws IOException{
-		this.out = new ObjectOutputStream(outStream);
+		this(outStream, Codec.getDefault());
+	}
+
+	public ObjectOutputStream_DS(OutputStream outStream, Codec codec) throws IOException{
+		// the first byte of the stream tells the reader which codec to use
+		outStream.write(codec.getId());
+		this.frames = new FrameOutputStream(outStream);
+		this.out = codec.newEncoder(frames);
+		// the header of the codec (if any) is sent right away: the reader waits for it
+		frames.endFrame();
+	}
+
+	/**
+	 * Enables or disables the compression of the objects written from now on.
+	 * The reader does not need to be told: each frame says whether it is compressed.
+	 * @param compression
+	 * @param threshold: objects encoded in less than threshold bytes are not compressed
+	 */
+	public void setCompression(boolean compression, int threshold){
+		frames.setCompression(compression, threshold);
 	}
 
 	public void writeObject(Object obj) throws IOException{
 		if (SimulationData.getInstance().isConnected()){
 			out.writeObject(obj);
+			frames.endFrame();
+		} else {
+			out.close();
+			throw new IOException("Trying to write into a closed ObjectOutputStream_DS");
+		}
+	}
+
+	/**
+	 * Forgets the objects already written (they are not referenced by
+	 * the objects written from now on). Used between the TSAE sessions
+	 * that share a connection.
+	 */
+	public void reset() throws IOException{
+		if (SimulationData.getInstance().isConnected()){
+			out.reset();
 		} else {
 			out.close();
 			throw new IOException("Trying to write into a closed ObjectOutputStream_DS");
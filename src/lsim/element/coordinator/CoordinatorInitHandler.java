@@ -62,8 +62,56 @@ public class CoordinatorInitHandler implements HandlerInitCoordinator {
 		lsim.addInitParamToAllWorkers("serverBasePort",params.get("serverBasePort"));
 		lsim.addInitParamToAllWorkers("sessionDelay",params.get("sessionDelay"));
 		lsim.addInitParamToAllWorkers("sessionPeriod",params.get("sessionPeriod"));
+		if (params.get("minSessionPeriod") != null){
+			lsim.addInitParamToAllWorkers("minSessionPeriod",params.get("minSessionPeriod"));
+		}
+		if (params.get("maxSessionPeriod") != null){
+			lsim.addInitParamToAllWorkers("maxSessionPeriod",params.get("maxSessionPeriod"));
+		}
+		if (params.get("sessionPeriodJitter") != null){
+			lsim.addInitParamToAllWorkers("sessionPeriodJitter",params.get("sessionPeriodJitter"));
+		}
 		lsim.addInitParamToAllWorkers("numSes",params.get("numSes"));
 		lsim.addInitParamToAllWorkers("propDegree",params.get("propDegree"));
+		if (params.get("operationBatchSize") != null){
+			lsim.addInitParamToAllWorkers("operationBatchSize",params.get("operationBatchSize"));
+		}
+		if (params.get("pipelinedSessions") != null){
+			lsim.addInitParamToAllWorkers("pipelinedSessions",params.get("pipelinedSessions"));
+		}
+		if (params.get("compression") != null){
+			lsim.addInitParamToAllWorkers("compression",params.get("compression"));
+		}
+		if (params.get("compressionThreshold") != null){
+			lsim.addInitParamToAllWorkers("compressionThreshold",params.get("compressionThreshold"));
+		}
+		if (params.get("partnerEventLoops") != null){
+			lsim.addInitParamToAllWorkers("partnerEventLoops",params.get("partnerEventLoops"));
+		}
+		if (params.get("executionMode") != null){
+			lsim.addInitParamToAllWorkers("executionMode",params.get("executionMode"));
+		}
+		if (params.get("maxParallelSessions") != null){
+			lsim.addInitParamToAllWorkers("maxParallelSessions",params.get("maxParallelSessions"));
+		}
+		if (params.get("sessionRoundDeadline") != null){
+			lsim.addInitParamToAllWorkers("sessionRoundDeadline",params.get("sessionRoundDeadline"));
+		}
+		if (params.get("connectTimeout") != null){
+			lsim.addInitParamToAllWorkers("connectTimeout",params.get("connectTimeout"));
+		}
+		if (params.get("readTimeout") != null){
+			lsim.addInitParamToAllWorkers("readTimeout",params.get("readTimeout"));
+		}
+		if (params.get("sessionTimeout") != null){
+			lsim.addInitParamToAllWorkers("sessionTimeout",params.get("sessionTimeout"));
+		}
+		if (params.get("peerSelector") != null){
+			lsim.addInitParamToAllWorkers("peerSelector",params.get("peerSelector"));
+		}
+		if (params.get("codec") != null){
+			lsim.addInitParamToAllWorkers("codec",params.get("codec"));
+		}
 		lsim.addInitParamToAllWorkers("simulationStop",params.get("simulationStop"));
 		lsim.addInitParamToAllWorkers("executionStop",params.get("executionStop"));
 		lsim.addInitParamToAllWorkers("simulationDelay",params.get("simulationDelay"));
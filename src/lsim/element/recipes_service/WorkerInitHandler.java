@@ -28,6 +28,7 @@ import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.Random;
 
+import communication.Codec;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import lsim.application.handler.HandlerInitWorker;
 import lsim.library.api.LSimFactory;
@@ -38,6 +39,8 @@ import recipes_service.ServerData;
 import recipes_service.ServerPartnerSide;
 import recipes_service.activity_simulation.SimulationData;
 import recipes_service.communication.Host;
+import recipes_service.tsae.sessions.ExecutionMode;
+import recipes_service.tsae.sessions.PeerSelector;
 import util.Serializer;
 
 /**
@@ -70,10 +73,72 @@ public class WorkerInitHandler implements HandlerInitWorker {
 		// params 1 and 2: TSAE parameters 
 		serverData.setSessionDelay(Long.parseLong((String)params.get("sessionDelay"))*1000);
 		serverData.setSessionPeriod(Long.parseLong((String)params.get("sessionPeriod"))*1000);
+		// optional: bounds (in seconds) of the adaptive period between TSAE rounds, and its jitter (0..1)
+		if (params.get("minSessionPeriod") != null){
+			serverData.setMinSessionPeriod(Long.parseLong((String)params.get("minSessionPeriod"))*1000);
+		}
+		if (params.get("maxSessionPeriod") != null){
+			serverData.setMaxSessionPeriod(Long.parseLong((String)params.get("maxSessionPeriod"))*1000);
+		}
+		if (params.get("sessionPeriodJitter") != null){
+			serverData.setSessionPeriodJitter(Double.parseDouble((String)params.get("sessionPeriodJitter")));
+		}
 		
 		serverData.setNumberSessions(Integer.parseInt((String)params.get("numSes"))*1000);
 		serverData.setPropagationDegree(Integer.parseInt((String)params.get("propDegree"))*1000);
 
+		// optional: maximum number of operations per message in TSAE sessions
+		if (params.get("operationBatchSize") != null){
+			serverData.setOperationBatchSize(Integer.parseInt((String)params.get("operationBatchSize")));
+		}
+		// optional: "false" to exchange operations one side after the other in TSAE sessions
+		if (params.get("pipelinedSessions") != null){
+			serverData.setPipelinedSessions(Boolean.parseBoolean((String)params.get("pipelinedSessions")));
+		}
+		// optional: "false" not to compress the messages of TSAE sessions
+		if (params.get("compression") != null){
+			serverData.setCompression(Boolean.parseBoolean((String)params.get("compression")));
+		}
+		// optional: messages smaller than compressionThreshold bytes are not compressed
+		if (params.get("compressionThreshold") != null){
+			serverData.setCompressionThreshold(Integer.parseInt((String)params.get("compressionThreshold")));
+		}
+		// optional: number of threads serving TSAE sessions from other servers (0: a thread per connection)
+		if (params.get("partnerEventLoops") != null){
+			serverData.setPartnerEventLoops(Integer.parseInt((String)params.get("partnerEventLoops")));
+		}
+		// optional: "virtual" to run TSAE sessions in virtual threads ("platform" by default)
+		if (params.get("executionMode") != null){
+			serverData.setExecutionMode(ExecutionMode.parse((String)params.get("executionMode")));
+		}
+		// optional: maximum number of simultaneous TSAE sessions started by this server
+		if (params.get("maxParallelSessions") != null){
+			serverData.setMaxParallelSessions(Integer.parseInt((String)params.get("maxParallelSessions")));
+		}
+		// optional: maximum duration (in milliseconds) of a round of TSAE sessions (0: no limit)
+		if (params.get("sessionRoundDeadline") != null){
+			serverData.setSessionRoundDeadline(Long.parseLong((String)params.get("sessionRoundDeadline")));
+		}
+		// optional: timeouts (in milliseconds) to connect to a partner, to wait for a message
+		// and for a whole TSAE session (0: no timeout)
+		if (params.get("connectTimeout") != null){
+			serverData.setConnectTimeout(Integer.parseInt((String)params.get("connectTimeout")));
+		}
+		if (params.get("readTimeout") != null){
+			serverData.setReadTimeout(Integer.parseInt((String)params.get("readTimeout")));
+		}
+		if (params.get("sessionTimeout") != null){
+			serverData.setSessionTimeout(Long.parseLong((String)params.get("sessionTimeout")));
+		}
+		// optional: how partners are chosen ("uniform", "roundRobin", "divergence" or "latency")
+		if (params.get("peerSelector") != null && PeerSelector.get((String)params.get("peerSelector")) != null){
+			serverData.setPeerSelector(PeerSelector.get((String)params.get("peerSelector")));
+		}
+		// optional: encoding of the TSAE messages ("binary" or "java")
+		if (params.get("codec") != null && Codec.get((String)params.get("codec")) != null){
+			Codec.setDefault(Codec.get((String)params.get("codec")));
+		}
+
 		// params 3 to 10: simulation parameters
 		SimulationData.getInstance().setSimulationStop(Integer.parseInt((String)params.get("simulationStop"))*1000);
 		SimulationData.getInstance().setExecutionStop(Integer.parseInt((String)params.get("executionStop"))*1000);
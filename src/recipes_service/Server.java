@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -44,6 +45,7 @@ import recipes_service.test.PartialResult;
 import recipes_service.test.ServerResult;
 import recipes_service.test.TestServerMessage;
 import recipes_service.test.TestServerMsgType;
+import util.Compression;
 import util.Serializer;
 import lsim.LSimDispatcherHandler;
 import lsim.application.ApplicationManager;
@@ -324,18 +326,12 @@ public class Server implements ApplicationManager {
 		LSimLogger.log(Level.INFO, "END");
 
 		// create a result's object that contains the TSAE data structures of this server
-		ServerResult sr = new ServerResult(
-				serverData.getId(),
-				serverData.getRecipes(),
-				serverData.getLog(),
-				serverData.getSummary(),
-				serverData.getAck()
-				);
+		ServerResult sr = serverData.getSnapshot(serverData.getId());
 
 		// send final result to localTestServer
 		try {
 			Socket socket = new Socket(testServerAddress, testServerPort);
-			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			ObjectOutputStream out = new ObjectOutputStream(resultStream(socket));
             out.writeObject(new FinalResult(sr));
             
             out.close();
@@ -407,18 +403,11 @@ public class Server implements ApplicationManager {
 					Level.TRACE,
 					"Ack: " + serverData.getAck().toString()
 					);
-			ServerResult sr =
-					new ServerResult(
-							serverData.getId(),
-							serverData.getRecipes(), 
-							serverData.getLog(), 
-							serverData.getSummary(),
-							serverData.getAck()
-					);
+			ServerResult sr = serverData.getSnapshot(serverData.getId());
 
 			try {
 				Socket socket = new Socket(testServerAddress, testServerPort);
-				ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+				ObjectOutputStream out = new ObjectOutputStream(resultStream(socket));
 				out.writeObject(new PartialResult(iteration, sr));
 
 				out.close();
@@ -459,6 +448,16 @@ public class Server implements ApplicationManager {
 //		System.exit(0);
 	}
 
+	/**
+	 * @return stream to send results to the TestServer (compressed if compression is enabled)
+	 */
+	private OutputStream resultStream(Socket socket) throws IOException{
+		if (serverData.isCompression()){
+			return Compression.compress(socket.getOutputStream());
+		}
+		return socket.getOutputStream();
+	}
+
 	
 	private void menu(boolean phase1){
 		// ------------------------------------------------
@@ -710,13 +709,7 @@ public class Server implements ApplicationManager {
 					"Ack: " + serverData.getAck().toString()
 					);
 
-			ServerResult sr = new ServerResult(
-					serverData.getId()+" ("+lsim.getInstanceId()+")",
-					serverData.getRecipes(),
-					serverData.getLog(),
-					serverData.getSummary(),
-					serverData.getAck()
-					);
+			ServerResult sr = serverData.getSnapshot(serverData.getId()+" ("+lsim.getInstanceId()+")");
 
 			lsim.sendResult(new PartialResult(iteration, sr));
 
@@ -765,13 +758,7 @@ public class Server implements ApplicationManager {
 //		serverData.updateLocalSummaryWithCurrentTimestamp();
 
 		// create a result's object that contains the TSAE data structures of this server
-		ServerResult sr = new ServerResult(
-				serverData.getId()+" ("+lsim.getInstanceName()+")",
-				serverData.getRecipes(),
-				serverData.getLog(),
-				serverData.getSummary(),
-				serverData.getAck()
-				);
+		ServerResult sr = serverData.getSnapshot(serverData.getId()+" ("+lsim.getInstanceName()+")");
 		
 		// send result's object to the evaluator
 		lsim.sendResult(new FinalResult(sr));
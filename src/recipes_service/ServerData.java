@@ -20,15 +20,16 @@
 
 package recipes_service;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Timer;
-import java.util.Vector;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import lsim.library.api.LSimLogger;
 import recipes_service.activity_simulation.SimulationData;
-import recipes_service.communication.Host;
 import recipes_service.communication.Hosts;
 import recipes_service.data.AddOperation;
 import recipes_service.data.Operation;
@@ -36,11 +37,18 @@ import recipes_service.data.OperationType;
 import recipes_service.data.Recipe;
 import recipes_service.data.Recipes;
 import recipes_service.data.RemoveOperation;
+import recipes_service.test.ServerResult;
 import recipes_service.tsae.data_structures.Log;
 import recipes_service.tsae.data_structures.Timestamp;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.tsae.sessions.AdaptiveSessionScheduler;
+import recipes_service.tsae.sessions.ExecutionMode;
+import recipes_service.tsae.sessions.PeerLatencies;
+import recipes_service.tsae.sessions.PeerSelector;
+import recipes_service.tsae.sessions.PropagationPusher;
 import recipes_service.tsae.sessions.TSAESessionOriginatorSide;
+import recipes_service.tsae.sessions.UniformPeerSelector;
 /**
  * @author Joan-Manuel Marques
  * December 2012
@@ -58,6 +66,12 @@ public class ServerData {
 	private Object timestampLock = new Object();
 	
 	// TSAE data structures
+	// Operations that modify them (adding or applying an operation, purging the log,
+	// updating the ack) are synchronized on this ServerData, so that log, summary, ack,
+	// recipes and tombstones are changed atomically. Operations that only read them
+	// (the ones used by TSAE sessions) only lock the structure they read: summary and
+	// ack are cloned copy-on-write and the log is read with its read lock, so that
+	// many sessions read at the same time.
 	private Log log = null;
 	private TimestampVector summary = null;
 	private TimestampMatrix ack = null;
@@ -70,6 +84,52 @@ public class ServerData {
 
 	// propDegree: (default value: 0) number of TSAE sessions done each time a new data is created
 	int propDegree = 0;
+
+	// operationBatchSize: (default value: 128) maximum number of operations sent in a single message
+	// during a TSAE session (1: each operation is sent in its own message)
+	private int operationBatchSize = 128;
+
+	// pipelinedSessions: (default value: true) in TSAE sessions started by this server both sides
+	// exchange summaries first and then send their operations at the same time
+	// (false: partner sends its operations before receiving the originator's ones)
+	private boolean pipelinedSessions = true;
+
+	// compression: (default value: true) TSAE sessions compress the messages (when both sides agree)
+	// compressionThreshold: (default value: 512) messages encoded in less bytes are not compressed
+	private boolean compression = true;
+	private int compressionThreshold = 512;
+
+	// partnerEventLoops: (default value: 2) number of threads that serve, with non-blocking I/O,
+	// the TSAE sessions started by other servers (0: a thread for each connection)
+	private int partnerEventLoops = 2;
+
+	// executionMode: (default value: PLATFORM) threads that run TSAE sessions. VIRTUAL: the sessions
+	// started by this server (and each partner connection, when partnerEventLoops is 0) run in
+	// virtual threads (see ExecutionMode)
+	private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+	// maxParallelSessions: (default value: 4) maximum number of TSAE sessions of a round
+	// (see TSAESessionOriginatorSide.sessionWithN) that run at the same time (1: one after the other)
+	// sessionRoundDeadline: (default value: 30000) milliseconds after which a round of TSAE sessions
+	// ends, even if some sessions have not finished (0: no deadline)
+	private int maxParallelSessions = 4;
+	private long sessionRoundDeadline = 30000;
+
+	// connectTimeout: (default value: 5000) milliseconds to connect to a partner
+	// readTimeout: (default value: 10000) milliseconds a TSAE session waits for the next message of the other server
+	// sessionTimeout: (default value: 20000) milliseconds after which a TSAE session is abandoned
+	// (0: no timeout). sessionTimeouts counts the sessions (of both sides) abandoned because of a timeout
+	private int connectTimeout = 5000;
+	private int readTimeout = 10000;
+	private long sessionTimeout = 20000;
+	private AtomicInteger sessionTimeouts = new AtomicInteger(0);
+
+	// peerSelector: (default value: uniform) how the partners of each round of TSAE sessions
+	// are chosen: "uniform", "roundRobin", "divergence" or "latency" (see PeerSelector)
+	private PeerSelector peerSelector = new UniformPeerSelector();
+
+	// latencies to the partners measured by the TSAE sessions started by this server
+	private PeerLatencies peerLatencies = new PeerLatencies();
 	
 	// Participating nodes
 	private Hosts participants;
@@ -77,8 +137,17 @@ public class ServerData {
 	// TSAE timers
 	private long sessionDelay;
 	private long sessionPeriod = 10;
+	// the period between TSAE rounds adapts between minSessionPeriod and maxSessionPeriod
+	// (default values: sessionPeriod/4 and sessionPeriod*4) and each delay is randomly changed
+	// by up to +-sessionPeriodJitter (default value: 0.2) of the period (see AdaptiveSessionScheduler)
+	private long minSessionPeriod = 0;
+	private long maxSessionPeriod = 0;
+	private double sessionPeriodJitter = 0.2;
+
+	private AdaptiveSessionScheduler tsaeSessionScheduler;
 
-	private Timer tsaeSessionTimer;
+	// propagates local writes in background TSAE rounds (see PropagationPusher)
+	private PropagationPusher propagationPusher;
 
 	//
 	TSAESessionOriginatorSide tsae = null;
@@ -103,7 +172,11 @@ public class ServerData {
 			this.removeTimestamp = removeTimestamp;
 		}
 	}
-	private List<Tombstone> tombstones = new Vector<Tombstone>();
+	// tombstones indexed by recipe timestamp
+	private Map<Timestamp, Tombstone> tombstones = new HashMap<Timestamp, Tombstone>();
+	// tombstones ordered by the sequence number of their remove timestamp,
+	// for each node that issued the remove operation
+	private Map<String, TreeMap<Long, Tombstone>> tombstonesByRemove = new HashMap<String, TreeMap<Long, Tombstone>>();
 	
 	// end: true when program should end; false otherwise
 	private boolean end;
@@ -126,28 +199,26 @@ private synchronized void purgeTombstones() {
 	        return;
 	    }
 	    
-	    // Crear una nueva lista para tombstones que deben mantenerse
-	    List<Tombstone> newTombstones = new Vector<Tombstone>();
-	    
-	    for (int i = 0; i < tombstones.size(); i++) {
-	        Tombstone tombstone = tombstones.get(i);
-	        Timestamp removeTs = tombstone.getRemoveTimestamp();
-	        if (removeTs == null) {
-	            newTombstones.add(tombstone);
-	            continue;
-	        }
-	        Timestamp minTs = sum.getLast(removeTs.getHostid());
+	    for (Iterator<Map.Entry<String, TreeMap<Long, Tombstone>>> it = tombstonesByRemove.entrySet().iterator(); it.hasNext(); ) {
+	        Map.Entry<String, TreeMap<Long, Tombstone>> entry = it.next();
+	        Timestamp minTs = sum.getLast(entry.getKey());
 	        
-	        // Mantener el tombstone si su timestamp es mayor que el mínimo conocido
-	        if (minTs != null && removeTs.compare(minTs) > 0) {
-	            newTombstones.add(tombstone);
+	        // Mantener el tombstone si su timestamp es mayor que el mínimo conocido:
+	        // los que tienen un timestamp menor o igual son un prefijo del orden
+	        // (todos conocen la eliminación, por lo que se pueden purgar)
+	        Map<Long, Tombstone> purged = entry.getValue();
+	        if (minTs != null) {
+	            purged = entry.getValue().headMap(minTs.getSeqnumber(), true);
+	        }
+	        for (Tombstone tombstone : purged.values()) {
+	            tombstones.remove(tombstone.getRecipeTimestamp());
+	        }
+	        purged.clear();
+	        if (entry.getValue().isEmpty()) {
+	            it.remove();
 	        }
-	        // Si removeTs.compare(minTs) <= 0, significa que todos conocen
-	        // la eliminación, por lo que se puede purgar
 	    }
 	    
-	    tombstones = newTombstones;
-	    
 	    LSimLogger.log(Level.TRACE, 
 	        "Tombstones purged. Remaining: " + tombstones.size());
 	}
@@ -158,6 +229,7 @@ private synchronized void purgeTombstones() {
 	 */
 	public void startTSAE(Hosts participants){
 		this.participants = participants;
+		this.participants.setTimeouts(connectTimeout, readTimeout);
 		this.log = new Log(participants.getIds());
 		this.summary = new TimestampVector(participants.getIds());
 		this.ack = new TimestampMatrix(participants.getIds());
@@ -165,12 +237,17 @@ private synchronized void purgeTombstones() {
 
 		//  Sets the Timer for TSAE sessions
 	    tsae = new TSAESessionOriginatorSide(this);
-		tsaeSessionTimer = new Timer();
-		tsaeSessionTimer.scheduleAtFixedRate(tsae, sessionDelay, sessionPeriod);
+		tsaeSessionScheduler = new AdaptiveSessionScheduler(this, tsae);
+		tsaeSessionScheduler.start(sessionDelay);
+
+		propagationPusher = new PropagationPusher(tsae);
+		propagationPusher.start();
 	}
 
 	public void stopTSAEsessions(){
-		this.tsaeSessionTimer.cancel();
+		this.tsaeSessionScheduler.cancel();
+		this.propagationPusher.shutdown();
+		this.participants.closeConnections();
 	}
 	
 	public boolean end(){
@@ -312,11 +389,26 @@ public Recipes getRecipes(){
 	return recipes;
 }
 
-public synchronized TimestampVector getSummaryClone() {
+/**
+ * @param nodeId
+ * @return a snapshot of recipes, log, summary and ack taken atomically.
+ * Structures are cloned copy-on-write, so the snapshot does not copy
+ * their contents and is not modified by later TSAE sessions.
+ */
+public synchronized ServerResult getSnapshot(String nodeId) {
+	return new ServerResult(nodeId, recipes, log, summary, ack);
+}
+
+/**
+ * @return a copy of the summary. An operation is added to the log before it
+ * is added to the summary, so all the operations covered by the copy are in the log.
+ */
+public TimestampVector getSummaryClone() {
 	return summary.clone();
 }
 
-public synchronized TimestampMatrix getAckClone() {
+public TimestampMatrix getAckClone() {
+	TimestampMatrix ack = this.ack;
 	return ack == null ? null : ack.clone();
 }
 
@@ -332,7 +424,12 @@ public synchronized void updateAckMax(TimestampMatrix otherAck) {
 	}
 }
 
-public synchronized List<Operation> listNewerOperations(TimestampVector otherSummary) {
+/**
+ * @param otherSummary
+ * @return operations of the log newer than otherSummary (other sessions
+ * can list operations at the same time)
+ */
+public List<Operation> listNewerOperations(TimestampVector otherSummary) {
 	return log.listNewer(otherSummary);
 }
 
@@ -351,6 +448,30 @@ public synchronized void applyOperation(Operation op) {
 	}
 }
 
+/**
+ * applies, in order, the operations of a batch received in a TSAE session
+ * (as applyOperation does for each of them). The monitor and the log are locked
+ * once for the whole batch and the local row of the ack is updated at the end.
+ * @param operations
+ */
+public synchronized void applyOperations(List<Operation> operations) {
+	List<Operation> added = log.addAll(operations);
+	if (added.isEmpty()) {
+		return;
+	}
+	for (Operation op : added) {
+		if (op.getType() == OperationType.ADD) {
+			applyAddOperation((AddOperation) op);
+		} else if (op.getType() == OperationType.REMOVE) {
+			applyRemoveOperation((RemoveOperation) op);
+		}
+		summary.updateTimestamp(op.getTimestamp());
+	}
+	if (ack != null) {
+		ack.update(id, summary);
+	}
+}
+
 public synchronized void purgeLog() {
 	if (ack == null) {
 		return;
@@ -360,12 +481,7 @@ public synchronized void purgeLog() {
 }
 
 private boolean isTombstoned(Timestamp timestamp) {
-	for (Tombstone tombstone : tombstones) {
-		if (tombstone != null && tombstone.getRecipeTimestamp() != null && tombstone.getRecipeTimestamp().equals(timestamp)) {
-			return true;
-		}
-	}
-	return false;
+	return timestamp != null && tombstones.containsKey(timestamp);
 }
 
 private void addTombstone(Timestamp timestamp) {
@@ -376,18 +492,41 @@ private void addTombstone(Timestamp recipeTimestamp, Timestamp removeTimestamp)
 	if (recipeTimestamp == null) {
 		return;
 	}
-	for (Tombstone tombstone : tombstones) {
-		if (tombstone != null && tombstone.getRecipeTimestamp() != null && tombstone.getRecipeTimestamp().equals(recipeTimestamp)) {
-			if (removeTimestamp != null) {
-				Timestamp currentRemove = tombstone.getRemoveTimestamp();
-				if (currentRemove == null || removeTimestamp.compare(currentRemove) > 0) {
-					tombstone.setRemoveTimestamp(removeTimestamp);
+	Tombstone tombstone = tombstones.get(recipeTimestamp);
+	if (tombstone == null) {
+		tombstone = new Tombstone(recipeTimestamp, removeTimestamp);
+		tombstones.put(recipeTimestamp, tombstone);
+		indexByRemove(tombstone);
+		return;
+	}
+	if (removeTimestamp != null) {
+		Timestamp currentRemove = tombstone.getRemoveTimestamp();
+		if (currentRemove == null || removeTimestamp.compare(currentRemove) > 0) {
+			if (currentRemove != null) {
+				TreeMap<Long, Tombstone> byRemove = tombstonesByRemove.get(currentRemove.getHostid());
+				byRemove.remove(currentRemove.getSeqnumber());
+				if (byRemove.isEmpty()) {
+					tombstonesByRemove.remove(currentRemove.getHostid());
 				}
 			}
-			return;
+			tombstone.setRemoveTimestamp(removeTimestamp);
+			indexByRemove(tombstone);
 		}
 	}
-	tombstones.add(new Tombstone(recipeTimestamp, removeTimestamp));
+}
+
+// tombstones without a remove timestamp are never purged
+private void indexByRemove(Tombstone tombstone) {
+	Timestamp removeTimestamp = tombstone.getRemoveTimestamp();
+	if (removeTimestamp == null) {
+		return;
+	}
+	TreeMap<Long, Tombstone> byRemove = tombstonesByRemove.get(removeTimestamp.getHostid());
+	if (byRemove == null) {
+		byRemove = new TreeMap<Long, Tombstone>();
+		tombstonesByRemove.put(removeTimestamp.getHostid(), byRemove);
+	}
+	byRemove.put(removeTimestamp.getSeqnumber(), tombstone);
 }
 
 private void applyAddOperation(AddOperation op) {
@@ -417,43 +556,32 @@ public void setSessionPeriod(long sessionPeriod){
 	this.sessionPeriod = sessionPeriod;
 }
 
-public List<Host> getRandomPartners(int num){
-	List<Host> res = new Vector<Host>();
-	if (participants == null || num <= 0) return res;
-	try {
-		java.lang.reflect.Method m = participants.getClass().getMethod("getRandomPartners", int.class, String.class);
-		Object o = m.invoke(participants, num, id);
-		if (o instanceof List) return (List<Host>) o;
-	} catch (Exception e) { }
-	try {
-		java.lang.reflect.Method m = participants.getClass().getMethod("getRandomPartners", int.class);
-		Object o = m.invoke(participants, num);
-		if (o instanceof List) return (List<Host>) o;
-	} catch (Exception e) { }
-	try {
-		java.lang.reflect.Method m = participants.getClass().getMethod("getRandomHosts", int.class, String.class);
-		Object o = m.invoke(participants, num, id);
-		if (o instanceof List) return (List<Host>) o;
-	} catch (Exception e) { }
-	try {
-		java.lang.reflect.Method m = participants.getClass().getMethod("getRandomHosts", int.class);
-		Object o = m.invoke(participants, num);
-		if (o instanceof List) return (List<Host>) o;
-	} catch (Exception e) { }
-	try {
-		java.lang.reflect.Method m = participants.getClass().getMethod("getHosts");
-		Object o = m.invoke(participants);
-		if (o instanceof List) {
-			List<?> all = (List<?>) o;
-			for (Object h : all) {
-				if (h instanceof Host) res.add((Host) h);
-			}
-		}
-	} catch (Exception e) { }
-	if (res.size() > num) {
-		return res.subList(0, num);
-	}
-	return res;
+public long getSessionPeriod(){
+	return this.sessionPeriod;
+}
+
+public long getMinSessionPeriod(){
+	return minSessionPeriod > 0 ? minSessionPeriod : Math.max(sessionPeriod / 4, 1);
+}
+
+public void setMinSessionPeriod(long minSessionPeriod){
+	this.minSessionPeriod = minSessionPeriod;
+}
+
+public long getMaxSessionPeriod(){
+	return Math.max(maxSessionPeriod > 0 ? maxSessionPeriod : sessionPeriod * 4, getMinSessionPeriod());
+}
+
+public void setMaxSessionPeriod(long maxSessionPeriod){
+	this.maxSessionPeriod = maxSessionPeriod;
+}
+
+public double getSessionPeriodJitter(){
+	return this.sessionPeriodJitter;
+}
+
+public void setSessionPeriodJitter(double sessionPeriodJitter){
+	this.sessionPeriodJitter = sessionPeriodJitter;
 }
 
 public void notifyServerConnected() {
@@ -476,10 +604,22 @@ public void waitServerConnected() {
 	}
 }
 
+public Hosts getHosts() {
+	return participants;
+}
+
 public TSAESessionOriginatorSide getTSAESessionOriginatorSide() {
 	return tsae;
 }
 
+/**
+ * Propagates local writes to propDegree partners without waiting for the sessions.
+ * Requests made before the pending push starts are merged into it.
+ */
+public void requestPropagation() {
+	propagationPusher.push(propDegree);
+}
+
 // ******************************
 // *** getters and setters
 // ******************************
@@ -505,4 +645,121 @@ public int getPropagationDegree(){
 public void setPropagationDegree(int propDegree){
 	this.propDegree = propDegree;
 }
+
+public int getOperationBatchSize(){
+	return this.operationBatchSize;
+}
+
+public void setOperationBatchSize(int operationBatchSize){
+	this.operationBatchSize = operationBatchSize;
+}
+
+public boolean isPipelinedSessions(){
+	return this.pipelinedSessions;
+}
+
+public void setPipelinedSessions(boolean pipelinedSessions){
+	this.pipelinedSessions = pipelinedSessions;
+}
+
+public boolean isCompression(){
+	return this.compression;
+}
+
+public void setCompression(boolean compression){
+	this.compression = compression;
+}
+
+public int getCompressionThreshold(){
+	return this.compressionThreshold;
+}
+
+public void setCompressionThreshold(int compressionThreshold){
+	this.compressionThreshold = compressionThreshold;
+}
+
+public int getPartnerEventLoops(){
+	return this.partnerEventLoops;
+}
+
+public void setPartnerEventLoops(int partnerEventLoops){
+	this.partnerEventLoops = partnerEventLoops;
+}
+
+public ExecutionMode getExecutionMode(){
+	return this.executionMode;
+}
+
+public void setExecutionMode(ExecutionMode executionMode){
+	this.executionMode = executionMode;
+}
+
+public int getMaxParallelSessions(){
+	return this.maxParallelSessions;
+}
+
+public void setMaxParallelSessions(int maxParallelSessions){
+	this.maxParallelSessions = maxParallelSessions;
+}
+
+public long getSessionRoundDeadline(){
+	return this.sessionRoundDeadline;
+}
+
+public void setSessionRoundDeadline(long sessionRoundDeadline){
+	this.sessionRoundDeadline = sessionRoundDeadline;
+}
+
+public int getConnectTimeout(){
+	return this.connectTimeout;
+}
+
+public void setConnectTimeout(int connectTimeout){
+	this.connectTimeout = connectTimeout;
+}
+
+public int getReadTimeout(){
+	return this.readTimeout;
+}
+
+public void setReadTimeout(int readTimeout){
+	this.readTimeout = readTimeout;
+}
+
+public long getSessionTimeout(){
+	return this.sessionTimeout;
+}
+
+public void setSessionTimeout(long sessionTimeout){
+	this.sessionTimeout = sessionTimeout;
+}
+
+/**
+ * a TSAE session (started by this server or by a partner) has been abandoned because of a timeout
+ */
+public void sessionTimedOut(){
+	sessionTimeouts.incrementAndGet();
+}
+
+/**
+ * @return number of TSAE sessions abandoned because of a timeout
+ */
+public int getSessionTimeouts(){
+	return sessionTimeouts.get();
+}
+
+public PeerSelector getPeerSelector(){
+	return this.peerSelector;
+}
+
+public void setPeerSelector(PeerSelector peerSelector){
+	this.peerSelector = peerSelector;
+}
+
+/**
+ * @return latencies to the partners (connection time and session round-trip time)
+ */
+public PeerLatencies getPeerLatencies(){
+	return this.peerLatencies;
+}
 }
\ No newline at end of file
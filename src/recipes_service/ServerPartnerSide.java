@@ -24,9 +24,12 @@ import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import lsim.library.api.LSimLogger;
+import recipes_service.tsae.sessions.PartnerEventLoop;
 import recipes_service.tsae.sessions.TSAESessionPartnerSide;
 
 /**
@@ -39,6 +42,8 @@ public class ServerPartnerSide  extends Thread{
 	private ServerData serverData = null;
 	
 	private ServerSocket serverSocket = null;
+	// threads that serve the accepted connections (null: a thread for each connection)
+	private PartnerEventLoop[] eventLoops = null;
 
 	boolean servicePublished = false;
 
@@ -66,6 +71,9 @@ public class ServerPartnerSide  extends Thread{
 		
 		// accept remote TSAE connections
 		// starts a new thread for each TSAE sessions from a partner server 
+		// (or assigns the connection to an event loop)
+		startEventLoops();
+		int next = 0;
 
 		while (!serverData.end()){
 			try {
@@ -74,7 +82,13 @@ public class ServerPartnerSide  extends Thread{
 				// if server should stop it will close and finish.
 				// In other case it will block again. 
 				serverSocket.setSoTimeout(20000);
-				new TSAESessionPartnerSide(serverSocket.accept(), this.serverData).start();
+				Socket socket = serverSocket.accept();
+				if (eventLoops != null){
+					eventLoops[next++ % eventLoops.length].serve(socket.getChannel());
+				} else {
+					TSAESessionPartnerSide partnerSide = new TSAESessionPartnerSide(socket, this.serverData);
+					serverData.getExecutionMode().start(partnerSide, "TSAEPartnerSideThread", false);
+				}
 			} catch (java.net.SocketTimeoutException e){
 				;
 			}catch (IOException e1) {
@@ -118,6 +132,23 @@ public class ServerPartnerSide  extends Thread{
 	 * Auxiliary functions
 	 */
 
+	private void startEventLoops(){
+		if (serverSocket.getChannel() == null){
+			return;
+		}
+		eventLoops = new PartnerEventLoop[serverData.getPartnerEventLoops()];
+		try {
+			for (int i = 0; i < eventLoops.length; i++){
+				eventLoops[i] = new PartnerEventLoop(serverData);
+				eventLoops[i].start();
+			}
+		} catch (IOException e) {
+			LSimLogger.log(Level.ERROR, e.getMessage());
+			e.printStackTrace();
+			eventLoops = null;
+		}
+	}
+
 	public boolean servicePublished(int port) {
 		// check if port is used by a UDP service
 		DatagramSocket ds = null;
@@ -138,7 +169,8 @@ public class ServerPartnerSide  extends Thread{
 		// starts a thread to deal with TSAE sessions from partner servers 
 
 		try {
-			serverSocket = new ServerSocket();
+			// non-blocking channels are served by event loops
+			serverSocket = serverData.getPartnerEventLoops() > 0 ? ServerSocketChannel.open().socket() : new ServerSocket();
 			serverSocket.setReuseAddress(true);
 			serverSocket.bind(new InetSocketAddress(port));
 //			serverSocket = new ServerSocket(port);
@@ -0,0 +1,254 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.List;
+import java.util.Vector;
+
+import communication.Codec;
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.data.RemoveOperation;
+import recipes_service.tsae.data_structures.ParticipantCodec;
+import recipes_service.tsae.data_structures.Timestamp;
+import util.CompactIO;
+import util.Serializer;
+
+/**
+ * Hand-written binary encoding of the TSAE messages.
+ * 
+ * Each message is written as a one-byte tag followed by its fields.
+ * Numbers are varints and participant ids are written once per stream
+ * (see ParticipantCodec). Objects that have no binary encoding are
+ * written with Java serialization, prefixed by their length.
+ */
+public class BinaryCodec extends Codec {
+	public static final int ID = 1;
+
+	// message tags
+	private static final int SERIALIZED = 0;
+	private static final int AE_REQUEST = 1;
+	private static final int OPERATION = 2;
+	private static final int END_TSAE = 3;
+	private static final int OPERATION_BATCH = 4;
+
+	// operation tags
+	private static final int SERIALIZED_OPERATION = 0;
+	private static final int ADD = 1;
+	private static final int REMOVE = 2;
+
+	// flags of an AE_REQUEST
+	private static final int HAS_ACK = 1;
+	private static final int PIPELINED = 2;
+	private static final int COMPRESSION = 4;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	public int getId(){
+		return ID;
+	}
+
+	public String getName(){
+		return "binary";
+	}
+
+	public Encoder newEncoder(OutputStream out){
+		return new BinaryEncoder(out);
+	}
+
+	public Decoder newDecoder(InputStream in){
+		return new BinaryDecoder(in);
+	}
+
+	private static class BinaryEncoder implements Encoder {
+		private final DataOutputStream out;
+		private final ParticipantCodec participants = new ParticipantCodec();
+
+		BinaryEncoder(OutputStream out){
+			this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		}
+
+		public void writeObject(Object obj) throws IOException{
+			Class<?> c = obj == null ? null : obj.getClass();
+			if (c == MessageAErequest.class){
+				MessageAErequest msg = (MessageAErequest) obj;
+				out.writeByte(AE_REQUEST);
+				CompactIO.writeSignedVarLong(out, msg.getSessionNumber());
+				out.writeByte((msg.getAck() != null ? HAS_ACK : 0) | (msg.isPipelined() ? PIPELINED : 0) | (msg.isCompression() ? COMPRESSION : 0));
+				participants.writeVector(out, msg.getSummary());
+				if (msg.getAck() != null){
+					participants.writeMatrix(out, msg.getAck());
+				}
+			} else if (c == MessageOperation.class){
+				out.writeByte(OPERATION);
+				CompactIO.writeSignedVarLong(out, ((Message) obj).getSessionNumber());
+				writeOperation(((MessageOperation) obj).getOperation());
+			} else if (c == MessageOperationBatch.class){
+				List<Operation> operations = ((MessageOperationBatch) obj).getOperations();
+				out.writeByte(OPERATION_BATCH);
+				CompactIO.writeSignedVarLong(out, ((Message) obj).getSessionNumber());
+				CompactIO.writeVarInt(out, operations.size());
+				for (Operation op : operations){
+					writeOperation(op);
+				}
+			} else if (c == MessageEndTSAE.class){
+				out.writeByte(END_TSAE);
+				CompactIO.writeSignedVarLong(out, ((Message) obj).getSessionNumber());
+			} else{
+				out.writeByte(SERIALIZED);
+				writeSerialized(obj);
+			}
+			out.flush();
+		}
+
+		public void reset(){
+			// nothing to forget: the participant table of the stream remains valid
+		}
+
+		public void close() throws IOException{
+			out.close();
+		}
+
+		private void writeOperation(Operation op) throws IOException{
+			Class<?> c = op == null ? null : op.getClass();
+			if (c == AddOperation.class){
+				Recipe recipe = ((AddOperation) op).getRecipe();
+				out.writeByte(ADD);
+				participants.writeTimestamp(out, op.getTimestamp());
+				CompactIO.writeString(out, recipe.getTitle());
+				CompactIO.writeString(out, recipe.getRecipe());
+				participants.writeId(out, recipe.getAuthor());
+				// the timestamp of a recipe usually is the timestamp of the operation that added it
+				boolean sameTimestamp = op.getTimestamp() == null ? recipe.getTimestamp() == null : op.getTimestamp().equals(recipe.getTimestamp());
+				out.writeBoolean(sameTimestamp);
+				if (!sameTimestamp){
+					participants.writeTimestamp(out, recipe.getTimestamp());
+				}
+			} else if (c == RemoveOperation.class){
+				RemoveOperation remove = (RemoveOperation) op;
+				out.writeByte(REMOVE);
+				participants.writeTimestamp(out, op.getTimestamp());
+				CompactIO.writeString(out, remove.getRecipeTitle());
+				participants.writeTimestamp(out, remove.getRecipeTimestamp());
+			} else{
+				out.writeByte(SERIALIZED_OPERATION);
+				writeSerialized(op);
+			}
+		}
+
+		private void writeSerialized(Object obj) throws IOException{
+			byte[] bytes = Serializer.serialize(obj);
+			CompactIO.writeVarInt(out, bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static class BinaryDecoder implements Decoder {
+		private final DataInputStream in;
+		private final ParticipantCodec participants = new ParticipantCodec();
+
+		BinaryDecoder(InputStream in){
+			this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		}
+
+		public Object readObject() throws IOException, ClassNotFoundException{
+			int tag = in.read();
+			if (tag < 0){
+				throw new EOFException();
+			}
+			if (tag == SERIALIZED){
+				return readSerialized();
+			}
+			int sessionNumber = (int) CompactIO.readSignedVarLong(in);
+			Message msg;
+			switch (tag){
+			case AE_REQUEST:
+				int flags = in.readUnsignedByte();
+				msg = new MessageAErequest(
+						participants.readVector(in),
+						(flags & HAS_ACK) != 0 ? participants.readMatrix(in) : null,
+						(flags & PIPELINED) != 0,
+						(flags & COMPRESSION) != 0
+						);
+				break;
+			case OPERATION:
+				msg = new MessageOperation(readOperation());
+				break;
+			case OPERATION_BATCH:
+				int size = CompactIO.readVarInt(in);
+				List<Operation> operations = new Vector<Operation>(size);
+				for (int i = 0; i < size; i++){
+					operations.add(readOperation());
+				}
+				msg = new MessageOperationBatch(operations);
+				break;
+			case END_TSAE:
+				msg = new MessageEndTSAE();
+				break;
+			default:
+				throw new StreamCorruptedException("Unknown message tag: " + tag);
+			}
+			msg.setSessionNumber(sessionNumber);
+			return msg;
+		}
+
+		public void close() throws IOException{
+			in.close();
+		}
+
+		private Operation readOperation() throws IOException, ClassNotFoundException{
+			int tag = in.readUnsignedByte();
+			switch (tag){
+			case ADD:
+				Timestamp ts = participants.readTimestamp(in);
+				String title = CompactIO.readString(in);
+				String recipe = CompactIO.readString(in);
+				String author = participants.readId(in);
+				Timestamp recipeTs = in.readBoolean() ? ts : participants.readTimestamp(in);
+				return new AddOperation(new Recipe(title, recipe, author, recipeTs), ts);
+			case REMOVE:
+				Timestamp removeTs = participants.readTimestamp(in);
+				String removedTitle = CompactIO.readString(in);
+				return new RemoveOperation(removedTitle, participants.readTimestamp(in), removeTs);
+			case SERIALIZED_OPERATION:
+				return (Operation) readSerialized();
+			default:
+				throw new StreamCorruptedException("Unknown operation tag: " + tag);
+			}
+		}
+
+		private Object readSerialized() throws IOException, ClassNotFoundException{
+			byte[] bytes = new byte[CompactIO.readVarInt(in)];
+			in.readFully(bytes);
+			return Serializer.deserialize(bytes);
+		}
+	}
+}
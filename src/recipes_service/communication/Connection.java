@@ -0,0 +1,146 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import communication.ObjectInputStream_DS;
+import communication.ObjectOutputStream_DS;
+
+/**
+ * Connection to a partner, used by the originator of TSAE sessions.
+ * Connections are kept (idle) in Hosts after a completed session and
+ * reused by the following sessions with the same partner: one session
+ * at a time.
+ */
+public class Connection implements Closeable {
+	// idle connections are not reused (they are closed) after this time (in milliseconds)
+	public static final int IDLE_TIME = 30000;
+	// the partner closes a connection after waiting this time for a new session
+	// (longer than IDLE_TIME: originators give up on idle connections first)
+	public static final int PARTNER_IDLE_TIME = 2 * IDLE_TIME;
+
+	private Host host;
+	private Socket socket;
+	private ObjectInputStream_DS in;
+	private ObjectOutputStream_DS out;
+
+	private long lastUsed;
+	// time (in milliseconds) to open the connection
+	private double connectTime;
+	// true if the connection was taken from the idle connections of Hosts
+	private boolean reused = false;
+	// true once the partner has answered in the current session
+	private boolean answered = false;
+
+	/**
+	 * @param host
+	 * @param connectTimeout: milliseconds to establish the connection (0: no timeout)
+	 * @param readTimeout: milliseconds a read waits for data (0: no timeout)
+	 */
+	public Connection(Host host, int connectTimeout, int readTimeout) throws IOException{
+		this.host = host;
+		this.socket = new Socket();
+		try {
+			long start = System.nanoTime();
+			socket.connect(new InetSocketAddress(host.getAddress(), host.getPort()), connectTimeout);
+			connectTime = (System.nanoTime() - start) / 1e6;
+			socket.setSoTimeout(readTimeout);
+			this.out = new ObjectOutputStream_DS(socket.getOutputStream());
+			this.in = new ObjectInputStream_DS(socket.getInputStream());
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	public Host getHost(){
+		return host;
+	}
+
+	public ObjectInputStream_DS getInputStream(){
+		return in;
+	}
+
+	public ObjectOutputStream_DS getOutputStream(){
+		return out;
+	}
+
+	public boolean isReused(){
+		return reused;
+	}
+
+	/**
+	 * @return time (in milliseconds) that took to open the connection
+	 */
+	public double getConnectTime(){
+		return connectTime;
+	}
+
+	/**
+	 * The partner has answered in the current session: if the session fails
+	 * from now on it can not be retried.
+	 */
+	public void setAnswered(){
+		answered = true;
+	}
+
+	public boolean isAnswered(){
+		return answered;
+	}
+
+	/**
+	 * @return true if the connection has been idle for less than IDLE_TIME
+	 */
+	boolean isFresh(){
+		return !socket.isClosed() && System.currentTimeMillis() - lastUsed < IDLE_TIME;
+	}
+
+	/**
+	 * prepares the connection for a new session
+	 */
+	void reuse(){
+		reused = true;
+		answered = false;
+	}
+
+	/**
+	 * the connection is idle from now on
+	 */
+	void idle(){
+		lastUsed = System.currentTimeMillis();
+	}
+
+	public void close(){
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+	}
+
+	public String toString(){
+		return "Connection [" + host + "]";
+	}
+}
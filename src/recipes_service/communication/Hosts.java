@@ -20,10 +20,18 @@
 
 package recipes_service.communication;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import recipes_service.activity_simulation.SimulationData;
 
 
 
@@ -37,9 +45,18 @@ public class Hosts{
 
 	private List<Host> nodes;
 	private Host localNode;
+	// position of localNode in nodes (-1 if it has not been added)
+	private int localIndex = -1;
 	
 	private List<String> listIds;
 
+	// idle connections to each partner (by partner id), most recently used first
+	private ConcurrentHashMap<String, Deque<Connection>> idleConnections = new ConcurrentHashMap<String, Deque<Connection>>();
+
+	// timeouts (in milliseconds) of new connections (0: no timeout)
+	private int connectTimeout = 0;
+	private int readTimeout = 0;
+
 	static Random rnd = new Random();
 
 	public Hosts(Host localNode){
@@ -50,6 +67,9 @@ public class Hosts{
 	}
 
 	public void add(Host node){
+		if (node.equals(localNode)){
+			localIndex = nodes.size();
+		}
 		this.nodes.add(node);
 		this.listIds.add(node.getId());
 	}
@@ -57,36 +77,140 @@ public class Hosts{
 	public int size(){
 		return nodes.size();
 	}
+
 	/**
-	 * Returns a list of num random partners
+	 * @return number of hosts other than the local one
+	 */
+	public int partners(){
+		return localIndex < 0 ? nodes.size() : nodes.size() - 1;
+	}
+
+	/**
+	 * @param i: 0 <= i < partners()
+	 * @return the i-th host other than the local one
+	 */
+	public Host getPartner(int i){
+		return nodes.get(localIndex < 0 || i < localIndex ? i : i + 1);
+	}
+
+	public Host getLocalNode(){
+		return localNode;
+	}
+
+	/**
+	 * Returns a list of num random partners (uniformly chosen, without
+	 * copying the hosts: Floyd's sampling algorithm)
 	 * @param num
 	 * @return
 	 */
 	public List<Host> getRandomPartners(int num){
 		List<Host> v = new Vector<Host>();
+		int partners = partners();
+		num = Math.min(num, partners);
+		Set<Integer> chosen = new HashSet<Integer>();
+		for (int j = partners - num; j < partners; j++){
+			int n = rnd.nextInt(j + 1);
+			if (!chosen.add(n)){
+				n = j;
+				chosen.add(n);
+			}
+			v.add(getPartner(n));
+		}
+		return v;
+	}
+
+	public List<String> getIds(){
+		return listIds;
+	}
 
-		if (nodes.size() == 1 || num < 1){
-			return v;
+	/**
+	 * @param node
+	 * @return an idle connection to node that can be reused or,
+	 * if there is none, a new connection.
+	 * @throws IOException if a new connection can not be opened
+	 */
+	public Connection getConnection(Host node) throws IOException{
+		if (!SimulationData.getInstance().isConnected()){
+			// a disconnected server loses its connections
+			closeConnections();
+			throw new IOException("Trying to connect from a disconnected server");
+		}
+		Deque<Connection> idle = idleConnections(node);
+		synchronized (idle){
+			Connection connection;
+			while ((connection = idle.pollFirst()) != null){
+				if (connection.isFresh()){
+					connection.reuse();
+					return connection;
+				}
+				connection.close();
+			}
 		}
+		return newConnection(node);
+	}
 
-		num = Math.min(num, nodes.size()-1);
+	/**
+	 * @param node
+	 * @return a new connection to node (not taken from the idle connections)
+	 * @throws IOException
+	 */
+	public Connection newConnection(Host node) throws IOException{
+		return new Connection(node, connectTimeout, readTimeout);
+	}
 
-		@SuppressWarnings("unchecked")
-		List<Host> auxNodes=(Vector<Host>)((Vector<Host>) nodes).clone();
+	/**
+	 * sets the timeouts of the connections opened from now on
+	 * @param connectTimeout: milliseconds to establish a connection (0: no timeout)
+	 * @param readTimeout: milliseconds a read waits for data (0: no timeout)
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout){
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
 
-		auxNodes.remove(localNode);
+	/**
+	 * keeps connection (after a completed session) to be reused by
+	 * the next session with the same partner
+	 * @param connection
+	 */
+	public void releaseConnection(Connection connection){
+		if (!SimulationData.getInstance().isConnected()){
+			connection.close();
+			closeConnections();
+			return;
+		}
+		connection.idle();
+		Deque<Connection> idle = idleConnections(connection.getHost());
+		synchronized (idle){
+			idle.addFirst(connection);
+			// evicts connections that have been idle for too long
+			while (!idle.peekLast().isFresh()){
+				idle.pollLast().close();
+			}
+		}
+	}
 
-		int n;
-		while(v.size()<num){
-			n= (((int)(rnd.nextDouble() *10000))%auxNodes.size());
-			v.add(auxNodes.get(n));
-			auxNodes.remove(n);
+	/**
+	 * closes all idle connections
+	 */
+	public void closeConnections(){
+		for (Deque<Connection> idle : idleConnections.values()){
+			synchronized (idle){
+				Connection connection;
+				while ((connection = idle.pollFirst()) != null){
+					connection.close();
+				}
+			}
 		}
-		return v;		
 	}
 
-	public List<String> getIds(){
-		return listIds;
+	private Deque<Connection> idleConnections(Host node){
+		Deque<Connection> idle = idleConnections.get(node.getId());
+		if (idle == null){
+			idleConnections.putIfAbsent(node.getId(), new LinkedList<Connection>());
+			idle = idleConnections.get(node.getId());
+		}
+		return idle;
 	}
 	public String toString(){
 		return localNode + "-" + nodes.toString();
@@ -34,11 +34,25 @@ public class MessageAErequest extends Message implements Serializable{
 	private static final long serialVersionUID = 3626351664901270873L;
 	private TimestampVector summary;
 	private TimestampMatrix ack;
+	// true if the originator asks for a pipelined (full-duplex) TSAE session
+	private boolean pipelined = false;
+	// true if the sender compresses (originator: is willing to compress) the messages it sends
+	private boolean compression = false;
 
 	public MessageAErequest (TimestampVector summary, TimestampMatrix ack){
 		this.summary = summary;
 		this.ack = ack;
 	}
+
+	public MessageAErequest (TimestampVector summary, TimestampMatrix ack, boolean pipelined){
+		this(summary, ack);
+		this.pipelined = pipelined;
+	}
+
+	public MessageAErequest (TimestampVector summary, TimestampMatrix ack, boolean pipelined, boolean compression){
+		this(summary, ack, pipelined);
+		this.compression = compression;
+	}
 	
 	public TimestampVector getSummary(){
 		return this.summary;
@@ -46,6 +60,12 @@ public class MessageAErequest extends Message implements Serializable{
 	public TimestampMatrix getAck(){
 		return this.ack;
 	}
+	public boolean isPipelined(){
+		return this.pipelined;
+	}
+	public boolean isCompression(){
+		return this.compression;
+	}
 	
 	public MsgType type(){
 		return MsgType.AE_REQUEST;
@@ -0,0 +1,75 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Vector;
+
+import recipes_service.data.Operation;
+
+/**
+ * Carries a batch of operations in a single message (a single
+ * writeObject) instead of one MessageOperation per operation.
+ */
+public class MessageOperationBatch extends Message implements Serializable{
+	private static final long serialVersionUID = 5170538924471125937L;
+	private List<Operation> operations;
+
+	public MessageOperationBatch (List<Operation> operations){
+		this.operations = operations;
+	}
+	
+	public List<Operation> getOperations(){
+		return this.operations;
+	}
+
+	public MsgType type(){
+		return MsgType.OPERATION_BATCH;
+	}
+
+	/**
+	 * Splits operations in messages to be sent in order.
+	 * @param operations
+	 * @param batchSize: maximum number of operations per message. When it is
+	 * 1 (or less) each operation is sent in its own MessageOperation. 
+	 * @return list of messages
+	 */
+	public static List<Message> split(List<Operation> operations, int batchSize){
+		List<Message> messages = new Vector<Message>();
+		if (batchSize <= 1){
+			for (Operation op : operations){
+				messages.add(new MessageOperation(op));
+			}
+			return messages;
+		}
+		for (int from = 0; from < operations.size(); from += batchSize){
+			int to = Math.min(from + batchSize, operations.size());
+			messages.add(new MessageOperationBatch(new Vector<Operation>(operations.subList(from, to))));
+		}
+		return messages;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageOperationBatch [session: "+getSessionNumber()+", operations=" + operations.size() + "]";
+	}
+}
@@ -23,6 +23,7 @@ package recipes_service.data;
 import java.io.Serializable;
 
 import recipes_service.tsae.data_structures.Timestamp;
+import util.Digest;
 
 /**
  * @author Joan-Manuel Marques
@@ -57,6 +58,10 @@ public class AddOperation extends Operation implements Serializable{
 	public Recipe getRecipe() {
 		return recipe;
 	}
+
+	public long digest(){
+		return Digest.combine(OperationType.ADD.ordinal(), recipe == null ? 0 : recipe.digest());
+	}
 	
 	@Override
 	public String toString() {
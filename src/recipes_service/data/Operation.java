@@ -44,4 +44,9 @@ public abstract class Operation implements Serializable{
 	}
 	
 	public abstract OperationType getType();
+
+	/**
+	 * @return digest of the contents compared by equals (see util.Digest)
+	 */
+	public abstract long digest();
 }
@@ -20,9 +20,13 @@
 
 package recipes_service.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
+import recipes_service.tsae.data_structures.ParticipantIds;
 import recipes_service.tsae.data_structures.Timestamp;
+import util.Digest;
 
 /**
  * @author Joan-Manuel Marques
@@ -36,12 +40,15 @@ public class Recipe implements Serializable{
 	private String recipe;
 	private String author;
 	private Timestamp timestamp;
+	// digest of the contents of the recipe (see util.Digest)
+	private transient long digest;
 	
 	public Recipe (String title, String recipe, String author, Timestamp timestamp){
 		this.title = title;
 		this.recipe = recipe;
-		this.author = author;
+		this.author = ParticipantIds.intern(author);
 		this.timestamp = timestamp;
+		this.digest = computeDigest();
 	}
 	
 	public String getTitle(){
@@ -59,6 +66,10 @@ public class Recipe implements Serializable{
 	public Timestamp getTimestamp() {
 		return timestamp;
 	}
+
+	public long digest(){
+		return digest;
+	}
 	
 	
 	@Override
@@ -96,4 +107,16 @@ public class Recipe implements Serializable{
 	public String toString(){
 		return "[" + this.title + ", " + this.recipe + ", " + this.author + "]";
 	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		author = ParticipantIds.intern(author);
+		digest = computeDigest();
+	}
+
+	private long computeDigest(){
+		long hash = Digest.combine(Digest.of(title), Digest.of(recipe));
+		hash = Digest.combine(hash, Digest.of(author));
+		return Digest.combine(hash, timestamp == null ? 0 : timestamp.digest());
+	}
 }
@@ -0,0 +1,185 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.data;
+
+import java.util.List;
+
+/**
+ * AVL tree of recipes ordered by title, where each node also stores
+ * the size of its subtree (order-statistic tree): the k-th title
+ * is found in O(log n).
+ *
+ * Nodes are immutable. put and remove return a new root that shares
+ * all the untouched subtrees with the previous one.
+ * Each node also stores the digest of its subtree (the sum of the
+ * digests of its recipes), so the digest of a tree is read in O(1).
+ */
+final class RecipeTree {
+
+	static final class Node {
+		final Recipe recipe;
+		final Node left;
+		final Node right;
+		final int size;
+		final int height;
+		final long digest;
+
+		Node(Recipe recipe, Node left, Node right){
+			this.recipe = recipe;
+			this.left = left;
+			this.right = right;
+			this.size = size(left) + size(right) + 1;
+			this.height = Math.max(height(left), height(right)) + 1;
+			this.digest = digest(left) + digest(right) + recipe.digest();
+		}
+	}
+
+	private RecipeTree(){
+	}
+
+	static int size(Node node){
+		return node == null ? 0 : node.size;
+	}
+
+	static long digest(Node node){
+		return node == null ? 0 : node.digest;
+	}
+
+	static Recipe get(Node node, String title){
+		while (node != null){
+			int cmp = title.compareTo(node.recipe.getTitle());
+			if (cmp == 0){
+				return node.recipe;
+			}
+			node = cmp < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * @param node
+	 * @param k (0 <= k < size(node))
+	 * @return the recipe with the k-th smallest title
+	 */
+	static Recipe select(Node node, int k){
+		while (node != null){
+			int leftSize = size(node.left);
+			if (k < leftSize){
+				node = node.left;
+			} else if (k > leftSize){
+				k -= leftSize + 1;
+				node = node.right;
+			} else{
+				return node.recipe;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return root of a tree equal to node with recipe added
+	 * (replacing the recipe with the same title, if any)
+	 */
+	static Node put(Node node, Recipe recipe){
+		if (node == null){
+			return new Node(recipe, null, null);
+		}
+		int cmp = recipe.getTitle().compareTo(node.recipe.getTitle());
+		if (cmp < 0){
+			return balance(node.recipe, put(node.left, recipe), node.right);
+		}
+		if (cmp > 0){
+			return balance(node.recipe, node.left, put(node.right, recipe));
+		}
+		return new Node(recipe, node.left, node.right);
+	}
+
+	/**
+	 * @return root of a tree equal to node without the recipe titled title
+	 */
+	static Node remove(Node node, String title){
+		if (node == null){
+			return null;
+		}
+		int cmp = title.compareTo(node.recipe.getTitle());
+		if (cmp < 0){
+			Node left = remove(node.left, title);
+			return left == node.left ? node : balance(node.recipe, left, node.right);
+		}
+		if (cmp > 0){
+			Node right = remove(node.right, title);
+			return right == node.right ? node : balance(node.recipe, node.left, right);
+		}
+		if (node.left == null){
+			return node.right;
+		}
+		if (node.right == null){
+			return node.left;
+		}
+		Recipe successor = select(node.right, 0);
+		return balance(successor, node.left, remove(node.right, successor.getTitle()));
+	}
+
+	/**
+	 * adds to recipes, ordered by title, all the recipes of the tree
+	 */
+	static void values(Node node, List<Recipe> recipes){
+		if (node == null){
+			return;
+		}
+		values(node.left, recipes);
+		recipes.add(node.recipe);
+		values(node.right, recipes);
+	}
+
+	/**
+	 * Auxiliary methods
+	 */
+
+	private static int height(Node node){
+		return node == null ? 0 : node.height;
+	}
+
+	private static Node balance(Recipe recipe, Node left, Node right){
+		int diff = height(left) - height(right);
+		if (diff > 1){
+			if (height(left.left) < height(left.right)){
+				left = rotateLeft(left.recipe, left.left, left.right);
+			}
+			return rotateRight(recipe, left, right);
+		}
+		if (diff < -1){
+			if (height(right.right) < height(right.left)){
+				right = rotateRight(right.recipe, right.left, right.right);
+			}
+			return rotateLeft(recipe, left, right);
+		}
+		return new Node(recipe, left, right);
+	}
+
+	private static Node rotateRight(Recipe recipe, Node left, Node right){
+		return new Node(left.recipe, left.left, new Node(recipe, left.right, right));
+	}
+
+	private static Node rotateLeft(Recipe recipe, Node left, Node right){
+		return new Node(right.recipe, new Node(recipe, left, right.left), right.right);
+	}
+}
@@ -20,8 +20,13 @@
 
 package recipes_service.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.TreeMap;
 
@@ -33,43 +38,62 @@ import java.util.TreeMap;
 public class Recipes implements Serializable{
 	
 	private static final long serialVersionUID = -8117147242301640951L;
-	private TreeMap<String,Recipe> recipes = null;
+	/**
+	 * Recipes are stored in an order-statistic tree (RecipeTree) ordered
+	 * by title. The serialized form is the same one used when recipes
+	 * were stored in a TreeMap<String,Recipe>.
+	 * 
+	 * Tree nodes are immutable: writers (add and remove) are serialized
+	 * by the Recipes monitor and publish a new root, while readers never
+	 * lock and work on the root that was current when they started.
+	 * Check-then-write sequences (e.g. last-writer-wins in ServerData)
+	 * must still be done while holding the lock of the caller.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("recipes", TreeMap.class)
+	};
+
+	private transient volatile RecipeTree.Node recipes = null;
 	
 	static Random rnd = new Random();
 	
 	
 	public Recipes(){
-		this.recipes = new TreeMap<String,Recipe> (); 
 	}
 	
 	public synchronized void add(Recipe recipe){
-		recipes.put(recipe.getTitle(),recipe);
+		recipes = RecipeTree.put(recipes, recipe);
 	}
 	
 	public synchronized void remove(String recipeTitle){
-		recipes.remove(recipeTitle);
+		recipes = RecipeTree.remove(recipes, recipeTitle);
+	}
+	public Recipe get(String recipeTitle){
+		return RecipeTree.get(recipes, recipeTitle);
 	}
-	public synchronized Recipe get(String recipeTitle){
-		return recipes.get(recipeTitle);
+	public boolean contains(String recipeTitle){
+		return RecipeTree.get(recipes, recipeTitle) != null;
 	}
-	public synchronized boolean contains(String recipeTitle){
-		return recipes.containsKey(recipeTitle);
+
+	/**
+	 * @return digest of the recipes (see util.Digest). Equal sets of
+	 * recipes have equal digests.
+	 */
+	public long digest(){
+		return RecipeTree.digest(recipes);
 	}
 	
-	public synchronized String getRandomRecipeTitle(){
-		if (recipes.isEmpty())
+	public String getRandomRecipeTitle(){
+		RecipeTree.Node root = recipes;
+		int size = RecipeTree.size(root);
+		if (size == 0)
 			return null;
-		int n= (((int)(rnd.nextDouble() *10000))%recipes.size());
+		int n= (((int)(rnd.nextDouble() *10000))%size);
 		
-		Iterator<String> it = recipes.keySet().iterator();
-		String result = it.next();
-		for (int i = 0 ; i < n; i++){
-			result = it.next();
-		}
-		return result;
+		return RecipeTree.select(root, n).getTitle();
 	}
 	@Override
-	public synchronized boolean equals(Object obj) {
+	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
 		if (obj == null)
@@ -77,36 +101,71 @@ public class Recipes implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		Recipes other = (Recipes) obj;
-		if (recipes == null) {
-			if (other.recipes != null)
-				return false;
-			else 
-				return true;
-		} else {
-			if (recipes.size() != other.recipes.size()){
+		RecipeTree.Node root = recipes;
+		RecipeTree.Node otherRoot = other.recipes;
+		if (root == otherRoot){
+			return true;
+		}
+		if (RecipeTree.size(root) != RecipeTree.size(otherRoot)){
+			return false;
+		}
+		// both trees are ordered by title
+		List<Recipe> local = values(root);
+		List<Recipe> remote = values(otherRoot);
+		for (int i = 0; i < local.size(); i++){
+			if (!local.get(i).equals(remote.get(i))){
 				return false;
 			}
-			boolean equal = true;
-			for (Iterator<String> it = recipes.keySet().iterator(); it.hasNext() && equal; ){
-				String rcp = it.next();
-				equal = recipes.get(rcp).equals(other.recipes.get(rcp));
-				if (!equal){
-				}
-			}
-			return equal;
 		}
+		return true;
 	}
 
-	public synchronized String toString(){
-		return recipes.toString();
+	public String toString(){
+		StringBuilder str = new StringBuilder("{");
+		List<Recipe> values = values(recipes);
+		for (int i = 0; i < values.size(); i++){
+			if (i > 0){
+				str.append(", ");
+			}
+			str.append(values.get(i).getTitle()).append('=').append(values.get(i));
+		}
+		return str.append('}').toString();
 	}
 	
-	public synchronized Recipes clone(){
+	public Recipes clone(){
+		// tree nodes are immutable: the clone shares them
 		Recipes clone = new Recipes();
-		
-		for (Iterator<Recipe> it = recipes.values().iterator(); it.hasNext();){
-			clone.add(it.next());
-		}
+		clone.recipes = recipes;
 		return clone;
 	}
+
+	/**
+	 * @return recipes of the tree root, ordered by title
+	 */
+	private static List<Recipe> values(RecipeTree.Node root){
+		List<Recipe> values = new ArrayList<Recipe>(RecipeTree.size(root));
+		RecipeTree.values(root, values);
+		return values;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		TreeMap<String,Recipe> map = new TreeMap<String,Recipe>();
+		for (Recipe recipe : values(recipes)){
+			map.put(recipe.getTitle(), recipe);
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("recipes", map);
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		TreeMap<String,Recipe> map = (TreeMap<String,Recipe>) fields.get("recipes", null);
+		if (map != null){
+			for (Recipe recipe : map.values()){
+				recipes = RecipeTree.put(recipes, recipe);
+			}
+		}
+	}
 }
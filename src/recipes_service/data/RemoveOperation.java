@@ -23,6 +23,7 @@ package recipes_service.data;
 import java.io.Serializable;
 
 import recipes_service.tsae.data_structures.Timestamp;
+import util.Digest;
 
 /**
  * @author Joan-Manuel Marques
@@ -50,6 +51,10 @@ public class RemoveOperation extends Operation implements Serializable{
 	public Timestamp getRecipeTimestamp(){
 		return recipeTimestamp;
 	}
+	public long digest(){
+		long hash = Digest.combine(OperationType.REMOVE.ordinal(), Digest.of(recipeTitle));
+		return Digest.combine(hash, recipeTimestamp == null ? 0 : recipeTimestamp.digest());
+	}
 	@Override
 	public String toString() {
 		return "RemoveOperation [recipeTitle=" + recipeTitle
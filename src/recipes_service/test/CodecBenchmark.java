@@ -0,0 +1,171 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import communication.Codec;
+import communication.ObjectOutputStream_DS;
+import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.Message;
+import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageEndTSAE;
+import recipes_service.communication.MessageOperationBatch;
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.data.RemoveOperation;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Compares the size and the encoding/decoding throughput of the messages
+ * of a TSAE session for each codec.
+ * 
+ * Arguments (all optional):
+ * 	-n <number of participants> (default 15)
+ * 	-o <number of operations sent in the session> (default 1000)
+ * 	-b <operations per message> (default 128)
+ * 	-i <iterations> (default 200)
+ * 	-t <compression threshold, in bytes> (default 512)
+ */
+public class CodecBenchmark {
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException{
+		List<String> argsList = Arrays.asList(args);
+		int participants = intArg(argsList, "-n", 15);
+		int numOperations = intArg(argsList, "-o", 1000);
+		int batchSize = intArg(argsList, "-b", 128);
+		int iterations = intArg(argsList, "-i", 200);
+		int threshold = intArg(argsList, "-t", 512);
+
+		List<Message> session = session(participants, numOperations, batchSize);
+		System.out.println("TSAE session: "+participants+" participants, "+numOperations+" operations, "+session.size()+" messages");
+		for (Codec codec : new Codec[]{Codec.get("java"), Codec.get("binary")}){
+			// warm up
+			for (int i = 0; i < Math.max(iterations / 10, 1); i++){
+				decode(codec, encode(codec, session));
+			}
+			long bytes = 0;
+			long encodeTime = 0;
+			long decodeTime = 0;
+			for (int i = 0; i < iterations; i++){
+				long start = System.nanoTime();
+				byte[] encoded = encode(codec, session);
+				long middle = System.nanoTime();
+				decode(codec, encoded);
+				decodeTime += System.nanoTime() - middle;
+				encodeTime += middle - start;
+				bytes = encoded.length;
+			}
+			System.out.println(codec.getName()+": "
+					+bytes+" bytes per session ("+(bytes / Math.max(numOperations, 1))+" bytes per operation), "
+					+"encode "+throughput(session.size(), iterations, encodeTime)+" msg/s, "
+					+"decode "+throughput(session.size(), iterations, decodeTime)+" msg/s"
+					);
+			System.out.println(codec.getName()+" (compressed): "+sentBytes(codec, session, threshold)+" bytes per session");
+		}
+	}
+
+	/**
+	 * Messages sent by a TSAE session originator: the AE request, the operations and the end message
+	 */
+	private static List<Message> session(int participants, int numOperations, int batchSize){
+		List<String> ids = new Vector<String>();
+		for (int i = 0; i < participants; i++){
+			ids.add("Group01@192.168.1."+i+":"+(20000+i));
+		}
+		TimestampVector summary = new TimestampVector(ids);
+		TimestampMatrix ack = new TimestampMatrix(ids);
+		List<Operation> operations = new Vector<Operation>();
+		for (int i = 0; i < numOperations; i++){
+			String id = ids.get(i % participants);
+			Timestamp ts = new Timestamp(id, i / participants);
+			if (i % 5 == 4){
+				Timestamp recipeTs = new Timestamp(id, i / participants - 1);
+				operations.add(new RemoveOperation("Recipe "+(i - 1), recipeTs, ts));
+			} else{
+				Recipe recipe = new Recipe("Recipe "+i, "Mix the ingredients of recipe "+i+" and bake for "+(20 + i % 40)+" minutes", id, ts);
+				operations.add(new AddOperation(recipe, ts));
+			}
+			summary.updateTimestamp(ts);
+		}
+		for (String id : ids){
+			ack.update(id, summary);
+		}
+		List<Message> messages = new Vector<Message>();
+		messages.add(new MessageAErequest(summary, ack, true));
+		messages.addAll(MessageOperationBatch.split(operations, batchSize));
+		messages.add(new MessageEndTSAE());
+		for (Message msg : messages){
+			msg.setSessionNumber(4242);
+		}
+		return messages;
+	}
+
+	private static byte[] encode(Codec codec, List<Message> messages) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Codec.Encoder encoder = codec.newEncoder(out);
+		for (Message msg : messages){
+			encoder.writeObject(msg);
+		}
+		encoder.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return bytes sent through a compressed ObjectOutputStream_DS
+	 */
+	private static long sentBytes(Codec codec, List<Message> messages, int threshold) throws IOException{
+		SimulationData.getInstance().connect();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream_DS stream = new ObjectOutputStream_DS(out, codec);
+		stream.setCompression(true, threshold);
+		for (Message msg : messages){
+			stream.writeObject(msg);
+		}
+		return out.size();
+	}
+
+	private static void decode(Codec codec, byte[] bytes) throws IOException, ClassNotFoundException{
+		Codec.Decoder decoder = codec.newDecoder(new ByteArrayInputStream(bytes));
+		Message msg;
+		do{
+			msg = (Message) decoder.readObject();
+		} while (!(msg instanceof MessageEndTSAE));
+		decoder.close();
+	}
+
+	private static long throughput(int messages, int iterations, long nanos){
+		return (long) messages * iterations * 1000000000L / Math.max(nanos, 1);
+	}
+
+	private static int intArg(List<String> argsList, String name, int defaultValue){
+		int i = argsList.indexOf(name);
+		return i < 0 ? defaultValue : Integer.parseInt(argsList.get(i+1));
+	}
+}
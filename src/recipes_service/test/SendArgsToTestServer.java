@@ -129,8 +129,56 @@ public class SendArgsToTestServer {
 			params.put("serverBasePort",properties.getProperty("serverBasePort"));
 			params.put("sessionDelay",properties.getProperty("sessionDelay"));
 			params.put("sessionPeriod",properties.getProperty("sessionPeriod"));
+			if (properties.getProperty("minSessionPeriod") != null){
+				params.put("minSessionPeriod",properties.getProperty("minSessionPeriod"));
+			}
+			if (properties.getProperty("maxSessionPeriod") != null){
+				params.put("maxSessionPeriod",properties.getProperty("maxSessionPeriod"));
+			}
+			if (properties.getProperty("sessionPeriodJitter") != null){
+				params.put("sessionPeriodJitter",properties.getProperty("sessionPeriodJitter"));
+			}
 			params.put("numSes",properties.getProperty("numSes"));
 			params.put("propDegree",properties.getProperty("propDegree"));
+			if (properties.getProperty("operationBatchSize") != null){
+				params.put("operationBatchSize",properties.getProperty("operationBatchSize"));
+			}
+			if (properties.getProperty("pipelinedSessions") != null){
+				params.put("pipelinedSessions",properties.getProperty("pipelinedSessions"));
+			}
+			if (properties.getProperty("compression") != null){
+				params.put("compression",properties.getProperty("compression"));
+			}
+			if (properties.getProperty("compressionThreshold") != null){
+				params.put("compressionThreshold",properties.getProperty("compressionThreshold"));
+			}
+			if (properties.getProperty("partnerEventLoops") != null){
+				params.put("partnerEventLoops",properties.getProperty("partnerEventLoops"));
+			}
+			if (properties.getProperty("executionMode") != null){
+				params.put("executionMode",properties.getProperty("executionMode"));
+			}
+			if (properties.getProperty("maxParallelSessions") != null){
+				params.put("maxParallelSessions",properties.getProperty("maxParallelSessions"));
+			}
+			if (properties.getProperty("sessionRoundDeadline") != null){
+				params.put("sessionRoundDeadline",properties.getProperty("sessionRoundDeadline"));
+			}
+			if (properties.getProperty("connectTimeout") != null){
+				params.put("connectTimeout",properties.getProperty("connectTimeout"));
+			}
+			if (properties.getProperty("readTimeout") != null){
+				params.put("readTimeout",properties.getProperty("readTimeout"));
+			}
+			if (properties.getProperty("sessionTimeout") != null){
+				params.put("sessionTimeout",properties.getProperty("sessionTimeout"));
+			}
+			if (properties.getProperty("peerSelector") != null){
+				params.put("peerSelector",properties.getProperty("peerSelector"));
+			}
+			if (properties.getProperty("codec") != null){
+				params.put("codec",properties.getProperty("codec"));
+			}
 			params.put("simulationStop",properties.getProperty("simulationStop"));
 			params.put("executionStop",properties.getProperty("executionStop"));
 			params.put("simulationDelay",properties.getProperty("simulationDelay"));
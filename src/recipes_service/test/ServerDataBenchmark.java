@@ -0,0 +1,164 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import recipes_service.ServerData;
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Measures the throughput of ServerData when many TSAE sessions run at the
+ * same time: reader threads do the reads of a session (summary, ack and
+ * operations newer than a summary that lags behind the local one) while
+ * writer threads apply operations received from partners.
+ * 
+ * Arguments (all optional):
+ * 	-n <number of participants> (default 15)
+ * 	-o <number of operations in the log before starting> (default 20000)
+ * 	-l <operations of each participant missing in the summary of a session> (default 20)
+ * 	-r <reader threads> (default: number of processors)
+ * 	-w <writer threads, at most the number of participants> (default 2)
+ * 	-b <operations applied at a time by a writer (as received in a batch message)> (default 128)
+ * 	-d <duration in milliseconds> (default 5000)
+ */
+public class ServerDataBenchmark {
+
+	public static void main(String[] args) throws InterruptedException{
+		List<String> argsList = Arrays.asList(args);
+		int participants = intArg(argsList, "-n", 15);
+		int numOperations = intArg(argsList, "-o", 20000);
+		final int lag = intArg(argsList, "-l", 20);
+		int readers = intArg(argsList, "-r", Runtime.getRuntime().availableProcessors());
+		int writers = Math.min(intArg(argsList, "-w", 2), participants);
+		final int batchSize = Math.max(intArg(argsList, "-b", 128), 1);
+		int duration = intArg(argsList, "-d", 5000);
+
+		final List<String> ids = new Vector<String>();
+		for (int i = 0; i < participants; i++){
+			ids.add("Group01@192.168.1."+i+":"+(20000+i));
+		}
+		final ServerData serverData = new ServerData();
+		serverData.setId(ids.get(0));
+		serverData.setSessionDelay(3600000);
+		serverData.setSessionPeriod(3600000);
+		Hosts hosts = new Hosts(new Host("192.168.1.0", 20000, ids.get(0)));
+		for (int i = 0; i < participants; i++){
+			hosts.add(new Host("192.168.1."+i, 20000+i, ids.get(i)));
+		}
+		serverData.startTSAE(hosts);
+
+		// operations of participant i have sequence numbers 0..seqnums[i]-1
+		final long[] seqnums = new long[participants];
+		for (int i = 0; i < numOperations; i++){
+			serverData.applyOperation(operation(ids.get(i % participants), seqnums[i % participants]++));
+		}
+
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final AtomicLong sessions = new AtomicLong(0);
+		final AtomicLong listed = new AtomicLong(0);
+		final AtomicLong applied = new AtomicLong(0);
+		List<Thread> threads = new Vector<Thread>();
+		for (int i = 0; i < readers; i++){
+			threads.add(new Thread(){
+				public void run(){
+					while (!stop.get()){
+						serverData.refreshAck();
+						TimestampVector summary = serverData.getSummaryClone();
+						serverData.getAckClone();
+						listed.addAndGet(serverData.listNewerOperations(lagging(summary, ids, lag)).size());
+						sessions.incrementAndGet();
+					}
+				}
+			});
+		}
+		for (int i = 0; i < writers; i++){
+			final int participant = i;
+			threads.add(new Thread(){
+				public void run(){
+					long seqnum = seqnums[participant];
+					while (!stop.get()){
+						if (batchSize == 1){
+							serverData.applyOperation(operation(ids.get(participant), seqnum++));
+						} else {
+							List<Operation> batch = new ArrayList<Operation>(batchSize);
+							for (int j = 0; j < batchSize; j++){
+								batch.add(operation(ids.get(participant), seqnum++));
+							}
+							serverData.applyOperations(batch);
+						}
+						applied.addAndGet(batchSize);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads){
+			thread.start();
+		}
+		Thread.sleep(duration);
+		stop.set(true);
+		for (Thread thread : threads){
+			thread.join();
+		}
+		serverData.stopTSAEsessions();
+		serverData.setEnd();
+
+		System.out.println(readers+" readers, "+writers+" writers (batches of "+batchSize+" operations), "+participants+" participants, "+numOperations+" initial operations");
+		System.out.println("sessions: "+(sessions.get() * 1000 / duration)+" /s ("
+				+(listed.get() * 1000 / duration)+" operations listed/s)");
+		System.out.println("applied operations: "+(applied.get() * 1000 / duration)+" /s");
+	}
+
+	private static AddOperation operation(String id, long seqnum){
+		Timestamp ts = new Timestamp(id, seqnum);
+		return new AddOperation(new Recipe("Recipe "+id+" "+seqnum, "Mix the ingredients and bake", id, ts), ts);
+	}
+
+	/**
+	 * @return a summary that lags lag operations of each participant behind summary
+	 */
+	private static TimestampVector lagging(TimestampVector summary, List<String> ids, int lag){
+		TimestampVector lagging = new TimestampVector(ids);
+		for (String id : ids){
+			Timestamp last = summary.getLast(id);
+			if (last != null && last.getSeqnumber() >= lag){
+				lagging.updateTimestamp(new Timestamp(id, last.getSeqnumber() - lag));
+			}
+		}
+		return lagging;
+	}
+
+	private static int intArg(List<String> argsList, String name, int defaultValue){
+		int i = argsList.indexOf(name);
+		return i < 0 ? defaultValue : Integer.parseInt(argsList.get(i+1));
+	}
+}
@@ -41,13 +41,33 @@ public class ServerResult implements Serializable{
 	private Log log;
 	private TimestampVector summary;
 	private TimestampMatrix ack;
+	// digests of the data structures (see util.Digest)
+	private boolean digested;
+	private long recipesDigest;
+	private long logDigest;
+	private long summaryDigest;
+	private long ackDigest;
 	
+	/**
+	 * Keeps clones of the data structures, not references to them.
+	 * Clones are copy-on-write: they share their contents with the
+	 * original structures until one of them is modified.
+	 * (ServerData.getSnapshot() builds a ServerResult whose structures
+	 * are consistent among them)
+	 * Digests are read from the clones, so they describe exactly the
+	 * structures kept by this result.
+	 */
 	public ServerResult (String nodeId, Recipes recipes, Log log, TimestampVector tsVector, TimestampMatrix tsMatrix){
 		this.nodeId = nodeId;
-		this.recipes = recipes.clone();
-		this.log = log;
-		this.summary = tsVector;
-		this.ack = tsMatrix;
+		this.recipes = recipes == null ? null : recipes.clone();
+		this.log = log == null ? null : log.clone();
+		this.summary = tsVector == null ? null : tsVector.clone();
+		this.ack = tsMatrix == null ? null : tsMatrix.clone();
+		this.recipesDigest = this.recipes == null ? 0 : this.recipes.digest();
+		this.logDigest = this.log == null ? 0 : this.log.digest();
+		this.summaryDigest = this.summary == null ? 0 : this.summary.digest();
+		this.ackDigest = this.ack == null ? 0 : this.ack.digest();
+		this.digested = true;
 	}
 	
 	public String getNodeId(){
@@ -80,6 +100,10 @@ public class ServerResult implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		ServerResult other = (ServerResult) obj;
+		// equal structures have equal digests: structures are only
+		// compared element by element when digests do not match
+		if (sameDigests(other, true))
+			return true;
 		if (summary == null) {
 			if (other.summary != null)
 				return false;
@@ -123,6 +147,8 @@ public class ServerResult implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		ServerResult other = (ServerResult) obj;
+		if (sameDigests(other, false))
+			return true;
 		if (summary == null) {
 			if (other.summary != null)
 				return false;
@@ -148,4 +174,25 @@ public class ServerResult implements Serializable{
 		}
 		return true;
 	}
+
+	/**
+	 * @param other
+	 * @param withAck: true if ack digests have to be compared too
+	 * @return true if both results have the same structures (null or not)
+	 * and the same digests
+	 */
+	private boolean sameDigests(ServerResult other, boolean withAck){
+		// results received from nodes that do not compute digests
+		if (!digested || !other.digested)
+			return false;
+		if ((recipes == null) != (other.recipes == null)
+				|| (log == null) != (other.log == null)
+				|| (summary == null) != (other.summary == null)
+				|| (withAck && (ack == null) != (other.ack == null)))
+			return false;
+		return recipesDigest == other.recipesDigest
+				&& logDigest == other.logDigest
+				&& summaryDigest == other.summaryDigest
+				&& (!withAck || ackDigest == other.ackDigest);
+	}
 }
@@ -36,6 +36,7 @@ import java.util.Vector;
 
 import lsim.library.api.LSimParameters;
 import recipes_service.communication.Host;
+import util.Compression;
 import util.Serializer;
 
 /**
@@ -182,7 +183,8 @@ public class TestServerExperimentManager extends Thread{
 			serverSocket.setSoTimeout(3600000);// sets a timeout. A read() call on the InputStream associated with this Socket will block for only this amount of time (milliseconds) 
 			do{
 				clientSocket = serverSocket.accept();
-				in = new ObjectInputStream(clientSocket.getInputStream());
+				// results may be compressed
+				in = new ObjectInputStream(Compression.decompressIfNeeded(clientSocket.getInputStream()));
 				try {
 					ResultBase result = (ResultBase)in.readObject();
 					switch(result.type()){
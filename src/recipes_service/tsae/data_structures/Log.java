@@ -20,20 +20,22 @@
 
 package recipes_service.tsae.data_structures;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import recipes_service.data.Operation;
-import recipes_service.data.OperationType;
+import util.Digest;
 //LSim logging system imports sgeag@2017
 //import lsim.coordinator.LSimCoordinator;
-import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
-import lsim.library.api.LSimLogger;
 
 /**
  * @author Joan-Manuel Marques, Daniel Lázaro Iglesias
@@ -53,16 +55,30 @@ public class Log implements Serializable{
 	 * They are stored in a ConcurrentHashMap (a hash table),
 	 * that stores a list of operations for each member of 
 	 * the group.
+	 * Each list is a SubLog indexed by sequence number. The serialized
+	 * form is the same one used when lists were Vector<Operation>.
 	 */
-        private ConcurrentHashMap<String, List<Operation>> log= new ConcurrentHashMap<String, List<Operation>>();
-        private final List<String> participants = new Vector<String>();
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("log", ConcurrentHashMap.class),
+		new ObjectStreamField("participants", List.class)
+	};
+
+        private transient ConcurrentHashMap<String, SubLog> log= new ConcurrentHashMap<String, SubLog>();
+        private transient List<String> participants = new Vector<String>();
+        // digest of the hosts and operations of the log (see util.Digest)
+        private transient long digest = 0;
+        // operations are added and purged with the write lock. The log is read with
+        // the read lock, so many TSAE sessions can list operations at the same time
+        private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
         public Log(List<String> participants){
                 // create an empty log
-                for (Iterator<String> it = participants.iterator(); it.hasNext(); ){
-                        String id = it.next();
+                for (String participant : participants){
+                        String id = ParticipantIds.intern(participant);
                         this.participants.add(id);
-                        log.put(id, new Vector<Operation>());
+                        if (log.put(id, new SubLog()) == null){
+                                digest += Digest.of(id);
+                        }
                 }
         }
 
@@ -75,7 +91,39 @@ public class Log implements Serializable{
 	 * @param op
 	 * @return true if op is inserted, false otherwise.
 	 */
-        public synchronized boolean add(Operation op){
+        public boolean add(Operation op){
+                lock.writeLock().lock();
+                try {
+                        return append(op);
+                } finally {
+                        lock.writeLock().unlock();
+                }
+        }
+
+	/**
+	 * inserts, in order, the operations of a batch (as add does for
+	 * each of them) taking the write lock only once.
+	 * 
+	 * @param operations
+	 * @return the inserted operations, in order.
+	 */
+        public List<Operation> addAll(List<Operation> operations){
+                List<Operation> added = new ArrayList<Operation>(operations.size());
+                lock.writeLock().lock();
+                try {
+                        for (Operation op : operations){
+                                if (append(op)){
+                                        added.add(op);
+                                }
+                        }
+                } finally {
+                        lock.writeLock().unlock();
+                }
+                return added;
+        }
+
+        // inserts op (the caller holds the write lock)
+        private boolean append(Operation op){
                 if (op == null){
                         return false;
                 }
@@ -84,33 +132,21 @@ public class Log implements Serializable{
                 }
 
                 String hostId = op.getTimestamp().getHostid();
-                List<Operation> sublog = log.get(hostId);
+                SubLog sublog = log.get(hostId);
                 if (sublog == null){
-                        sublog = new Vector<Operation>();
+                        sublog = new SubLog();
                         log.put(hostId, sublog);
+                        digest += Digest.of(hostId);
                         if (!participants.contains(hostId)){
                                 participants.add(hostId);
                         }
                 }
 
-                if (sublog.isEmpty()){
-                        sublog.add(op);
-                        return true;
-                }
-
-                Operation lastOp = sublog.get(sublog.size() - 1);
-                if (lastOp == null || lastOp.getTimestamp() == null){
+                if (!sublog.append(op)){
                         return false;
                 }
-
-                long diff = op.getTimestamp().compare(lastOp.getTimestamp());
-                if (diff == 1){
-                        sublog.add(op);
-                        return true;
-                }
-
-                // duplicated or out-of-order operation
-                return false;
+                digest += op.digest();
+                return true;
         }
 	
 	/**
@@ -121,28 +157,30 @@ public class Log implements Serializable{
 	 * @param sum
 	 * @return list of operations
 	 */
-        public synchronized List<Operation> listNewer(TimestampVector sum){
-                List<Operation> operations = new Vector<Operation>();
-
-                for (String hostId : participants){
-                        List<Operation> sublog = log.get(hostId);
-                        if (sublog == null){
-                                continue;
-                        }
+        public List<Operation> listNewer(TimestampVector sum){
+                lock.readLock().lock();
+                try {
+                        List<Operation> operations = new Vector<Operation>();
 
-                        Timestamp lastSeen = null;
-                        if (sum != null){
-                                lastSeen = sum.getLast(hostId);
-                        }
+                        for (String hostId : participants){
+                                SubLog sublog = log.get(hostId);
+                                if (sublog == null){
+                                        continue;
+                                }
 
-                        for (Operation operation : sublog){
-                                if (lastSeen == null || operation.getTimestamp().compare(lastSeen) > 0){
-                                        operations.add(operation);
+                                Timestamp lastSeen = null;
+                                if (sum != null){
+                                        lastSeen = sum.getLast(hostId);
                                 }
+
+                                // jumps straight to the first operation newer than lastSeen
+                                sublog.listNewer(lastSeen == null ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : lastSeen.getSeqnumber(), operations);
                         }
-                }
 
-                return operations;
+                        return operations;
+                } finally {
+                        lock.readLock().unlock();
+                }
         }
 	
 	/**
@@ -152,61 +190,171 @@ public class Log implements Serializable{
 	 * ackSummary. 
 	 * @param ack: ackSummary.
 	 */
-public synchronized void purgeLog(TimestampMatrix ack){
-		if (ack == null) {
-			return;
-		}
-		TimestampVector min = ack.minTimestampVector();
-		for (String host : log.keySet()) {
-			List<Operation> hostOps = log.get(host);
-			if (hostOps == null) {
-				continue;
-			}
-			Timestamp minTimestamp = min.getLast(host);
-			if (minTimestamp == null) {
-				continue;
+public void purgeLog(TimestampMatrix ack){
+		lock.writeLock().lock();
+		try {
+			if (ack == null) {
+				return;
 			}
-			for (Iterator<Operation> it = hostOps.iterator(); it.hasNext();) {
-				Operation op = it.next();
-				if (op.getTimestamp().compare(minTimestamp) <= 0) {
-					it.remove();
+			TimestampVector min = ack.minTimestampVector();
+			for (String host : log.keySet()) {
+				SubLog hostOps = log.get(host);
+				if (hostOps == null) {
+					continue;
 				}
+				Timestamp minTimestamp = min.getLast(host);
+				if (minTimestamp == null) {
+					continue;
+				}
+				long before = hostOps.digest();
+				hostOps.purge(minTimestamp.getSeqnumber());
+				digest += hostOps.digest() - before;
 			}
+		} finally {
+			lock.writeLock().unlock();
 		}
 	}
+
+	/**
+	 * @return digest of the log (see util.Digest). It is kept up to date
+	 * on every add and purge: logs that are equal have equal digests.
+	 */
+	public long digest(){
+		lock.readLock().lock();
+		try {
+			return digest;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	/**
+	 * clone
+	 * Sublogs of the clone share their operations with the ones
+	 * of this log: no operation is copied (and the read lock is
+	 * enough: this log is only marked as shared).
+	 */
+	public Log clone(){
+		lock.readLock().lock();
+		try {
+			Log clone = new Log(new Vector<String>());
+			clone.participants.addAll(participants);
+			for (Map.Entry<String, SubLog> entry : log.entrySet()){
+				clone.log.put(entry.getKey(), entry.getValue().snapshot());
+			}
+			clone.digest = digest;
+			return clone;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	/**
 	 * equals
 	 */
 	@Override
-        public synchronized boolean equals(Object obj) {
+        public boolean equals(Object obj) {
+                lock.readLock().lock();
+                try {
 
-                if (this == obj)
+                        if (this == obj)
+                                return true;
+                        if (obj == null)
+                                return false;
+                        if (getClass() != obj.getClass())
+                                return false;
+                        Log other = (Log) obj;
+                        if (!log.keySet().equals(other.log.keySet())){
+                                return false;
+                        }
+                        for (Map.Entry<String, SubLog> entry : log.entrySet()){
+                                if (!entry.getValue().sameOperations(other.log.get(entry.getKey()))){
+                                        return false;
+                                }
+                        }
                         return true;
-                if (obj == null)
-                        return false;
-                if (getClass() != obj.getClass())
-                        return false;
-                Log other = (Log) obj;
-                return log.equals(other.log);
+                } finally {
+                        lock.readLock().unlock();
+                }
         }
 
         @Override
-        public synchronized int hashCode() {
-                return log.hashCode();
+        public int hashCode() {
+                lock.readLock().lock();
+                try {
+                        int hash = 0;
+                        for (Map.Entry<String, SubLog> entry : log.entrySet()){
+                                hash += entry.getKey().hashCode() ^ entry.getValue().size();
+                        }
+                        return hash;
+                } finally {
+                        lock.readLock().unlock();
+                }
         }
 
 	/**
 	 * toString
 	 */
 	@Override
-	public synchronized String toString() {
-		String name="";
-		for(List<Operation> sublog: log.values()){
-			for(ListIterator<Operation> en2=sublog.listIterator(); en2.hasNext();){
-				name+=en2.next().toString()+"\n";
+	public String toString() {
+		lock.readLock().lock();
+		try {
+			String name="";
+			for(String hostId: participants){
+				SubLog sublog = log.get(hostId);
+				for(int i=0; sublog!=null && i<sublog.size(); i++){
+					name+=sublog.get(i).toString()+"\n";
+				}
 			}
-		}
 		
-		return name;
+			return name;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		lock.readLock().lock();
+		try {
+			ConcurrentHashMap<String, List<Operation>> sublogs = new ConcurrentHashMap<String, List<Operation>>();
+			for (Map.Entry<String, SubLog> entry : log.entrySet()){
+				sublogs.put(entry.getKey(), entry.getValue().toList());
+			}
+			ObjectOutputStream.PutField fields = out.putFields();
+			fields.put("log", sublogs);
+			fields.put("participants", new Vector<String>(participants));
+			out.writeFields();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		Map<String, List<Operation>> sublogs = (Map<String, List<Operation>>) fields.get("log", null);
+		List<String> ids = (List<String>) fields.get("participants", null);
+
+		lock = new ReentrantReadWriteLock();
+		log = new ConcurrentHashMap<String, SubLog>();
+		participants = new Vector<String>();
+		if (ids != null){
+			for (String id : ids){
+				participants.add(ParticipantIds.intern(id));
+			}
+		}
+		if (sublogs != null){
+			for (Map.Entry<String, List<Operation>> entry : sublogs.entrySet()){
+				String id = ParticipantIds.intern(entry.getKey());
+				SubLog sublog = new SubLog();
+				for (Operation op : entry.getValue()){
+					sublog.append(op);
+				}
+				log.put(id, sublog);
+				digest += Digest.of(id) + sublog.digest();
+				if (!participants.contains(id)){
+					participants.add(id);
+				}
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,233 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import util.CompactIO;
+
+/**
+ * Binary encoding of participant ids, timestamps, timestamp vectors and
+ * timestamp matrices for a single stream.
+ *
+ * Each participant id is written in full only the first time it appears
+ * in the stream; afterwards it is written as its position in the stream
+ * table. The writer and the reader of a stream build the same table,
+ * so a stream must be written and read by a single ParticipantCodec
+ * on each side, in the same order.
+ */
+public class ParticipantCodec {
+	// codes of a participant reference
+	private static final int NULL_ID = 0;
+	private static final int NEW_ID = 1;
+	private static final int FIRST_REF = 2;
+
+	// writer: participant id -> position in the stream table
+	private final Map<String, Integer> written = new HashMap<String, Integer>();
+	// reader: position in the stream table -> participant id
+	private String[] read = new String[0];
+	private int tableSize = 0;
+	// scratch entries used while decoding a vector
+	private String[] entryIds = new String[0];
+	private int[] entrySlots = new int[0];
+	private long[] entrySeqs = new long[0];
+	// index of the last decoded vector: the vectors of a stream usually belong to the same group
+	private ParticipantIndex rowIndex = null;
+
+	public void writeId(DataOutput out, String id) throws IOException{
+		if (id == null){
+			CompactIO.writeVarInt(out, NULL_ID);
+			return;
+		}
+		Integer position = written.get(id);
+		if (position != null){
+			CompactIO.writeVarInt(out, position.intValue() + FIRST_REF);
+			return;
+		}
+		CompactIO.writeVarInt(out, NEW_ID);
+		CompactIO.writeString(out, id);
+		written.put(id, tableSize++);
+	}
+
+	public String readId(DataInput in) throws IOException{
+		int code = CompactIO.readVarInt(in);
+		if (code == NULL_ID){
+			return null;
+		}
+		if (code == NEW_ID){
+			String id = CompactIO.readString(in);
+			if (id == null){
+				throw new StreamCorruptedException("Missing participant id");
+			}
+			if (tableSize == read.length){
+				read = Arrays.copyOf(read, Math.max(8, read.length * 2));
+			}
+			id = ParticipantIds.intern(id);
+			read[tableSize++] = id;
+			return id;
+		}
+		int position = code - FIRST_REF;
+		if (position < 0 || position >= tableSize){
+			throw new StreamCorruptedException("Unknown participant reference: " + code);
+		}
+		return read[position];
+	}
+
+	public void writeTimestamp(DataOutput out, Timestamp timestamp) throws IOException{
+		if (timestamp == null){
+			CompactIO.writeVarInt(out, NULL_ID);
+			return;
+		}
+		writeId(out, timestamp.getHostid());
+		CompactIO.writeSignedVarLong(out, timestamp.getSeqnumber());
+	}
+
+	public Timestamp readTimestamp(DataInput in) throws IOException{
+		String id = readId(in);
+		if (id == null){
+			return null;
+		}
+		return new Timestamp(id, CompactIO.readSignedVarLong(in));
+	}
+
+	/**
+	 * writes the number of participants of vector followed by
+	 * (participant, sequence number) for each of them
+	 */
+	public void writeVector(DataOutput out, TimestampVector vector) throws IOException{
+		if (vector == null){
+			CompactIO.writeVarInt(out, 0);
+			return;
+		}
+		ParticipantIndex index = vector.getIndex();
+		writeRow(out, vector.toArray(index), index);
+	}
+
+	public TimestampVector readVector(DataInput in) throws IOException{
+		return readRow(in);
+	}
+
+	/**
+	 * writes the number of rows of matrix followed by (participant, row) for each row
+	 */
+	public void writeMatrix(DataOutput out, TimestampMatrix matrix) throws IOException{
+		if (matrix == null){
+			CompactIO.writeVarInt(out, 0);
+			return;
+		}
+		ParticipantIndex index = matrix.getIndex();
+		long[][] rows = matrix.sharedRows(index);
+		int count = 0;
+		for (long[] row : rows){
+			if (row != null){
+				count++;
+			}
+		}
+		CompactIO.writeVarInt(out, count + 1);
+		for (int r = 0; r < rows.length; r++){
+			if (rows[r] != null){
+				writeId(out, index.idAt(r));
+				writeRow(out, rows[r], index);
+			}
+		}
+	}
+
+	public TimestampMatrix readMatrix(DataInput in) throws IOException{
+		int count = CompactIO.readVarInt(in);
+		if (count == 0){
+			return null;
+		}
+		TimestampMatrix matrix = null;
+		for (int i = 0; i < count - 1; i++){
+			String id = readId(in);
+			TimestampVector row = readRow(in);
+			if (matrix == null && row != null){
+				// the matrix takes the index of its rows
+				matrix = new TimestampMatrix(row.getIndex());
+			}
+			matrix.update(id, row);
+		}
+		return matrix == null ? new TimestampMatrix(new Vector<String>()) : matrix;
+	}
+
+	/**
+	 * Auxiliary methods
+	 */
+
+	// a row is written as (number of participants + 1), 0 meaning a null row
+	private void writeRow(DataOutput out, long[] seqnumbers, ParticipantIndex index) throws IOException{
+		int count = 0;
+		for (long seq : seqnumbers){
+			if (seq != TimestampVector.ABSENT){
+				count++;
+			}
+		}
+		CompactIO.writeVarInt(out, count + 1);
+		for (int i = 0; i < seqnumbers.length; i++){
+			if (seqnumbers[i] != TimestampVector.ABSENT){
+				writeId(out, index.idAt(i));
+				CompactIO.writeSignedVarLong(out, seqnumbers[i]);
+			}
+		}
+	}
+
+	private TimestampVector readRow(DataInput in) throws IOException{
+		int count = CompactIO.readVarInt(in);
+		if (count == 0){
+			return null;
+		}
+		count--;
+		if (count > entryIds.length){
+			entryIds = new String[count];
+			entrySlots = new int[count];
+			entrySeqs = new long[count];
+		}
+		// the group of the row is known only once all its ids have been read
+		for (int i = 0; i < count; i++){
+			String id = readId(in);
+			if (id == null){
+				throw new StreamCorruptedException("Null participant in a timestamp vector");
+			}
+			entryIds[i] = id;
+			entrySeqs[i] = CompactIO.readSignedVarLong(in);
+		}
+		if (rowIndex == null || !rowIndex.containsAll(entryIds, count)){
+			rowIndex = ParticipantIndex.forParticipants(Arrays.asList(entryIds).subList(0, count));
+		}
+		int size = 0;
+		for (int i = 0; i < count; i++){
+			entrySlots[i] = rowIndex.slotOf(entryIds[i]);
+			size = Math.max(size, entrySlots[i] + 1);
+		}
+		long[] seqnumbers = TimestampVector.absentSlots(size);
+		for (int i = 0; i < count; i++){
+			seqnumbers[entrySlots[i]] = entrySeqs[i];
+		}
+		return new TimestampVector(rowIndex, seqnumbers);
+	}
+}
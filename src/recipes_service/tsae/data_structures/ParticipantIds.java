@@ -0,0 +1,53 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical Strings of participant ids.
+ * Every Timestamp, Recipe and Log of the process shares the same String
+ * for the same id, so that ids are stored once and compared by reference
+ * before comparing their characters. It only interns ids: the array
+ * slots of timestamp vectors are assigned by ParticipantIndex.
+ */
+public class ParticipantIds {
+	private static final ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<String, String>();
+
+	private ParticipantIds(){
+	}
+
+	/**
+	 * @param id
+	 * @return the canonical String of id
+	 */
+	public static String intern(String id){
+		if (id == null){
+			return null;
+		}
+		String canonical = ids.get(id);
+		if (canonical != null){
+			return canonical;
+		}
+		canonical = ids.putIfAbsent(id, id);
+		return canonical == null ? id : canonical;
+	}
+}
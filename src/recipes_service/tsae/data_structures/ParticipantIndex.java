@@ -0,0 +1,179 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Slots of the participants of a group.
+ * Maps each participant id to a dense int slot. Slots are assigned once,
+ * in order of registration, and never reused.
+ * The timestamp vectors and matrices built for the same participants
+ * share one index (see forParticipants): they address a participant with
+ * the same array index and are merged slot by slot. Values of a structure
+ * with another index are translated by id (see adapt).
+ * Each group has its own slots, so arrays are as long as the group, and
+ * an index is released once no structure uses it.
+ */
+class ParticipantIndex {
+	// participants of a group -> index of the group
+	private static final Map<Set<String>, WeakReference<ParticipantIndex>> groups = new HashMap<Set<String>, WeakReference<ParticipantIndex>>();
+
+	private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+	// slot -> participant id (copy-on-write: replaced when a new id is registered)
+	private volatile String[] ids = new String[0];
+
+	ParticipantIndex(){
+	}
+
+	/**
+	 * @param participants
+	 * @return the index of the group formed by participants, with participants
+	 * registered (a new index, not shared, if participants is empty)
+	 */
+	static ParticipantIndex forParticipants(List<String> participants){
+		if (participants.isEmpty()){
+			return new ParticipantIndex();
+		}
+		Set<String> group = new HashSet<String>(participants);
+		synchronized (groups){
+			WeakReference<ParticipantIndex> reference = groups.get(group);
+			ParticipantIndex index = reference == null ? null : reference.get();
+			if (index == null){
+				index = new ParticipantIndex();
+				index.registerAll(participants);
+				// forgets the groups whose index is no longer used
+				for (Iterator<WeakReference<ParticipantIndex>> it = groups.values().iterator(); it.hasNext();){
+					if (it.next().get() == null){
+						it.remove();
+					}
+				}
+				groups.put(group, new WeakReference<ParticipantIndex>(index));
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return the slot of id, or -1 if id has never been registered
+	 */
+	int slotOf(String id){
+		if (id == null){
+			return -1;
+		}
+		Integer slot = slots.get(id);
+		return slot == null ? -1 : slot.intValue();
+	}
+
+	/**
+	 * @param id
+	 * @return the slot of id. A new slot is assigned the first time id is seen
+	 */
+	int register(String id){
+		Integer slot = slots.get(id);
+		if (slot != null){
+			return slot.intValue();
+		}
+		synchronized (this){
+			slot = slots.get(id);
+			if (slot != null){
+				return slot.intValue();
+			}
+			String[] current = ids;
+			String[] grown = new String[current.length + 1];
+			System.arraycopy(current, 0, grown, 0, current.length);
+			grown[current.length] = ParticipantIds.intern(id);
+			ids = grown;
+			slots.put(id, current.length);
+			return current.length;
+		}
+	}
+
+	/**
+	 * registers ids, in order
+	 * @param ids
+	 * @return the highest slot of ids plus one (0 if ids is empty)
+	 */
+	int registerAll(List<String> ids){
+		int size = 0;
+		for (String id : ids){
+			size = Math.max(size, register(id) + 1);
+		}
+		return size;
+	}
+
+	/**
+	 * @param ids
+	 * @param count
+	 * @return true if the first count ids have a slot in this index
+	 */
+	boolean containsAll(String[] ids, int count){
+		for (int i = 0; i < count; i++){
+			if (slotOf(ids[i]) < 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param slot
+	 * @return the participant id assigned to slot
+	 */
+	String idAt(int slot){
+		return ids[slot];
+	}
+
+	/**
+	 * @param values sequence numbers indexed by the slots of from
+	 * @param from
+	 * @return values indexed by the slots of this index (values itself
+	 * if from is this index). Their ids are registered if they are new
+	 */
+	long[] adapt(long[] values, ParticipantIndex from){
+		if (from == this){
+			return values;
+		}
+		int size = 0;
+		int[] adaptedSlots = new int[values.length];
+		for (int i = 0; i < values.length; i++){
+			if (values[i] != TimestampVector.ABSENT){
+				adaptedSlots[i] = register(from.idAt(i));
+				size = Math.max(size, adaptedSlots[i] + 1);
+			}
+		}
+		long[] adapted = TimestampVector.absentSlots(size);
+		for (int i = 0; i < values.length; i++){
+			if (values[i] != TimestampVector.ABSENT){
+				adapted[adaptedSlots[i]] = values[i];
+			}
+		}
+		return adapted;
+	}
+}
@@ -0,0 +1,254 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import recipes_service.data.Operation;
+
+/**
+ * Operations issued by a single node, ordered by sequence number.
+ *
+ * Operations are appended with consecutive sequence numbers, so the
+ * operation with sequence number seq is stored at position
+ * (seq - baseSeq) of a chunked array and can be reached without
+ * scanning the operations that precede it.
+ *
+ * A snapshot shares the chunks with the sublog it is taken from.
+ * Stored positions are never overwritten, so it is enough to copy the
+ * chunk table and the last (partially filled) chunk before the next
+ * modification of either of them.
+ *
+ * Each position also keeps the digest of all the operations appended up
+ * to it (a prefix sum), so that purging a prefix updates the digest
+ * without visiting the purged operations.
+ */
+class SubLog {
+	private static final int CHUNK_BITS = 8;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private Operation[][] chunks = new Operation[1][];
+	// prefix digests, with the same layout as chunks
+	private long[][] prefixes = new long[1][];
+	// chunks before firstChunk have been purged; head is the position
+	// of the first stored operation inside chunks[firstChunk]
+	private int firstChunk = 0;
+	private int head = 0;
+	// sequence number of the first stored operation
+	private long baseSeq;
+	private int size = 0;
+	// sum of the digests of the stored operations (see util.Digest)
+	private long digest = 0;
+	// sum of the digests of all the operations appended since the sublog was last empty
+	private long appended = 0;
+	// true when chunks are shared with a snapshot
+	private boolean shared = false;
+
+	/**
+	 * appends op if its sequence number follows the last stored one
+	 * (any sequence number is accepted when the sublog is empty).
+	 * @param op
+	 * @return true if op is appended, false otherwise.
+	 */
+	boolean append(Operation op){
+		long seq = op.getTimestamp().getSeqnumber();
+		if (size == 0){
+			baseSeq = seq;
+		} else if (seq != baseSeq + size){
+			// duplicated or out-of-order operation
+			return false;
+		}
+		beforeWrite();
+		int position = head + size;
+		int chunk = firstChunk + (position >>> CHUNK_BITS);
+		if (chunk == chunks.length){
+			growChunks();
+			chunk = firstChunk + (position >>> CHUNK_BITS);
+		}
+		if (chunks[chunk] == null){
+			chunks[chunk] = new Operation[CHUNK_SIZE];
+			prefixes[chunk] = new long[CHUNK_SIZE];
+		}
+		long opDigest = op.digest();
+		appended += opDigest;
+		chunks[chunk][position & CHUNK_MASK] = op;
+		prefixes[chunk][position & CHUNK_MASK] = appended;
+		size++;
+		digest += opDigest;
+		return true;
+	}
+
+	/**
+	 * adds to operations, in order, the stored operations
+	 * with a sequence number greater than seq
+	 * @param seq
+	 * @param operations
+	 */
+	void listNewer(long seq, List<Operation> operations){
+		for (int i = firstAfter(seq); i < size; i++){
+			operations.add(get(i));
+		}
+	}
+
+	/**
+	 * removes the stored operations with a sequence number
+	 * smaller or equal than seq.
+	 * Operations are a prefix of the sublog: the head is moved
+	 * forward and whole chunks are released, without shifting
+	 * the remaining operations.
+	 * @param seq
+	 */
+	void purge(long seq){
+		int count = firstAfter(seq);
+		if (count == 0){
+			return;
+		}
+		beforeWrite();
+		// the stored operations are the ones appended after the last purged one
+		int last = head + count - 1;
+		digest = appended - prefixes[firstChunk + (last >>> CHUNK_BITS)][last & CHUNK_MASK];
+		baseSeq += count;
+		size -= count;
+		if (size == 0){
+			chunks = new Operation[1][];
+			prefixes = new long[1][];
+			firstChunk = 0;
+			head = 0;
+			appended = 0;
+			return;
+		}
+		head += count;
+		// purged operations of the first (partially purged) chunk are kept
+		// until the whole chunk is released: the chunk may be shared with a snapshot
+		while (head >= CHUNK_SIZE){
+			prefixes[firstChunk] = null;
+			chunks[firstChunk++] = null;
+			head -= CHUNK_SIZE;
+		}
+	}
+
+	/**
+	 * @return a sublog with the same operations, that shares the chunks of this one
+	 */
+	SubLog snapshot(){
+		SubLog snapshot = new SubLog();
+		snapshot.chunks = chunks;
+		snapshot.prefixes = prefixes;
+		snapshot.firstChunk = firstChunk;
+		snapshot.head = head;
+		snapshot.baseSeq = baseSeq;
+		snapshot.size = size;
+		snapshot.digest = digest;
+		snapshot.appended = appended;
+		snapshot.shared = true;
+		shared = true;
+		return snapshot;
+	}
+
+	int size(){
+		return size;
+	}
+
+	long digest(){
+		return digest;
+	}
+
+	/**
+	 * @param seq
+	 * @return the position of the first stored operation with a sequence
+	 * number greater than seq (size if there is none)
+	 */
+	private int firstAfter(long seq){
+		// compared before subtracting: seq + 1 - baseSeq overflows for seq near Long.MIN_VALUE
+		if (seq < baseSeq){
+			return 0;
+		}
+		return (int) Math.min(seq - baseSeq + 1, size);
+	}
+
+	Operation get(int position){
+		int p = head + position;
+		return chunks[firstChunk + (p >>> CHUNK_BITS)][p & CHUNK_MASK];
+	}
+
+	/**
+	 * @return the stored operations, in order
+	 */
+	List<Operation> toList(){
+		List<Operation> operations = new Vector<Operation>(size);
+		for (int i = 0; i < size; i++){
+			operations.add(get(i));
+		}
+		return operations;
+	}
+
+	/**
+	 * @param other
+	 * @return true if both sublogs contain equal operations in the same order
+	 */
+	boolean sameOperations(SubLog other){
+		if (size != other.size){
+			return false;
+		}
+		for (int i = 0; i < size; i++){
+			Operation op = get(i);
+			if (op == null ? other.get(i) != null : !op.equals(other.get(i))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// stops sharing the chunk table and the chunk that receives the next operation
+	private void beforeWrite(){
+		if (!shared){
+			return;
+		}
+		chunks = chunks.clone();
+		prefixes = prefixes.clone();
+		int tail = firstChunk + ((head + size) >>> CHUNK_BITS);
+		if (tail < chunks.length && chunks[tail] != null){
+			chunks[tail] = chunks[tail].clone();
+			prefixes[tail] = prefixes[tail].clone();
+		}
+		shared = false;
+	}
+
+	/**
+	 * makes room for a new chunk: reuses the slots of purged chunks
+	 * or doubles the chunk table when there are none
+	 */
+	private void growChunks(){
+		int used = chunks.length - firstChunk;
+		Operation[][] grown = firstChunk > 0 ? chunks : new Operation[chunks.length * 2][];
+		long[][] grownPrefixes = firstChunk > 0 ? prefixes : new long[prefixes.length * 2][];
+		System.arraycopy(chunks, firstChunk, grown, 0, used);
+		System.arraycopy(prefixes, firstChunk, grownPrefixes, 0, used);
+		Arrays.fill(grown, used, chunks.length, null);
+		Arrays.fill(grownPrefixes, used, prefixes.length, null);
+		chunks = grown;
+		prefixes = grownPrefixes;
+		firstChunk = 0;
+	}
+}
@@ -19,8 +19,12 @@
 */
 
 package recipes_service.tsae.data_structures;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
+import util.Digest;
+
 /**
  * @author Joan-Manuel Marques, Daniel Lázaro Iglesias
  * December 2012
@@ -43,13 +47,25 @@ public class Timestamp implements Serializable{
 	private long seqnumber;
 	
 	public Timestamp(String nodeid, long seqnumber){
-		this.hostid = nodeid;
+		// all timestamps issued by a node share the same id String
+		this.hostid = ParticipantIds.intern(nodeid);
 		this.seqnumber = seqnumber;
 	}
 	public String getHostid() {
 		return hostid;
 	}
-	
+
+	public long getSeqnumber() {
+		return seqnumber;
+	}
+
+	/**
+	 * @return digest of this timestamp (see util.Digest)
+	 */
+	public long digest(){
+		return Digest.combine(Digest.of(hostid), seqnumber);
+	}
+
 	public boolean isNullTimestamp(){
 		return seqnumber < 0;
 	}
@@ -79,15 +95,27 @@ public class Timestamp implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		Timestamp other = (Timestamp) obj;
+		if (seqnumber != other.seqnumber)
+			return false;
+		// host ids are interned: same id means same String
+		if (hostid == other.hostid)
+			return true;
 		if (hostid == null) {
 			if (other.hostid != null)
 				return false;
 		} else if (!hostid.equals(other.hostid))
 			return false;
-		if (seqnumber != other.seqnumber)
-			return false;
 		return true;
 	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((hostid == null) ? 0 : hostid.hashCode());
+		result = prime * result + (int) (seqnumber ^ (seqnumber >>> 32));
+		return result;
+	}
 	
 	/**
 	 * toString
@@ -95,5 +123,10 @@ public class Timestamp implements Serializable{
 	public String toString(){
 		return hostid+":   "+seqnumber;
 	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		hostid = ParticipantIds.intern(hostid);
+	}
 	
 }
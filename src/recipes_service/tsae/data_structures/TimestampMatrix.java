@@ -20,14 +20,18 @@
 
 package recipes_service.tsae.data_structures;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.Vector;
 
-import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import util.Digest;
+import java.util.Vector;
 
 /**
  * @author Joan-Manuel Marques, Daniel Lázaro Iglesias
@@ -37,42 +41,88 @@ import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 public class TimestampMatrix implements Serializable{
 	
 	private static final long serialVersionUID = 3331148113387926667L;
-        ConcurrentHashMap<String, TimestampVector> timestampMatrix = new ConcurrentHashMap<String, TimestampVector>();
-        private final List<String> participants;
+	/**
+	 * Rows and columns are indexed by the slot that the ParticipantIndex
+	 * of the group of the matrix assigns to each node. The column-wise minimum is kept up to date
+	 * on every change so that minTimestampVector() does not need to
+	 * visit the whole matrix. The serialized form is the same one used
+	 * when the matrix was a ConcurrentHashMap<String, TimestampVector>.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("timestampMatrix", ConcurrentHashMap.class),
+		new ObjectStreamField("participants", List.class)
+	};
+
+	private static final long ABSENT = TimestampVector.ABSENT;
+
+        private transient ParticipantIndex index;
+        // rows[slot] is the timestamp vector of node in slot (null if node has no row)
+        private transient long[][] rows;
+        // column-wise minimum over all rows, and number of rows holding that minimum
+        private transient long[] min;
+        private transient int[] minCount;
+        // true when rows, min and minCount are shared with a clone (copied before being modified)
+        private transient boolean shared;
+        // rows that can be modified in place (rows not shared with a clone)
+        private transient boolean[] ownedRows;
+        // digest of the rows and cells of the matrix (see util.Digest)
+        private transient long digest;
 
         public TimestampMatrix(List<String> participants){
                 // create and empty TimestampMatrix
-                this.participants = new Vector<String>();
-                for (Iterator<String> it = participants.iterator(); it.hasNext(); ){
-                        String id = it.next();
-                        this.participants.add(id);
-                        timestampMatrix.put(id, new TimestampVector(participants));
+                init(ParticipantIndex.forParticipants(participants));
+                ensureCapacity(index.registerAll(participants));
+                TimestampVector row = new TimestampVector(index, participants);
+                for (String id : participants){
+                        update(id, row);
                 }
         }
+
+        TimestampMatrix(ParticipantIndex index){
+                init(index);
+        }
 	
 	/**
 	 * @param node
-	 * @return the timestamp vector of node in this timestamp matrix
+	 * @return a copy of the timestamp vector of node in this timestamp matrix
 	 */
         public synchronized TimestampVector getTimestampVector(String node){
-        	return timestampMatrix.get(node);
+        	int slot = index.slotOf(node);
+        	if (slot < 0 || slot >= rows.length || rows[slot] == null){
+        		return null;
+        	}
+        	return new TimestampVector(index, rows[slot].clone());
         }
 	
 	/**
 	 * Merges two timestamp matrix taking the elementwise maximum
 	 * @param tsMatrix
 	 */
-        public synchronized void updateMax(TimestampMatrix tsMatrix){
+        public void updateMax(TimestampMatrix tsMatrix){
     		if (tsMatrix == null) {
     			return;
     		}
-    		for (String node : tsMatrix.timestampMatrix.keySet()) {
-    			TimestampVector other = tsMatrix.timestampMatrix.get(node);
-    			TimestampVector current = timestampMatrix.get(node);
-    			if (current == null) {
-    				timestampMatrix.put(node, other.clone());
-    			} else {
-    				current.updateMax(other);
+    		// shared rows are never modified in place: they are read without
+    		// the lock of tsMatrix, so that locks are never nested
+    		long[][] otherRows = tsMatrix.sharedRows(index);
+    		synchronized (this) {
+    			beforeWrite();
+    			ensureCapacity(otherRows.length);
+    			for (int r = 0; r < otherRows.length; r++) {
+    				long[] other = otherRows[r];
+    				if (other == null) {
+    					continue;
+    				}
+    				ensureCapacity(other.length);
+    				if (rows[r] == null) {
+    					newRow(r);
+    				}
+    				for (int c = 0; c < other.length; c++) {
+    					long current = rows[r][c];
+    					if (other[c] != ABSENT && (current == ABSENT || other[c] > current)) {
+    						setCell(r, writableRow(r), c, other[c]);
+    					}
+    				}
     			}
     		}
         }
@@ -86,7 +136,17 @@ public class TimestampMatrix implements Serializable{
     		if (node == null || tsVector == null) {
     			return;
     		}
-    		timestampMatrix.put(node, tsVector.clone());
+    		long[] values = tsVector.toArray(index);
+    		int slot = index.register(node);
+    		beforeWrite();
+    		ensureCapacity(Math.max(slot + 1, values.length));
+    		if (rows[slot] == null) {
+    			newRow(slot);
+    		}
+    		long[] current = writableRow(slot);
+    		for (int c = 0; c < current.length; c++) {
+    			setCell(slot, current, c, c < values.length ? values[c] : ABSENT);
+    		}
 		}
 	/**
 	 * 
@@ -94,34 +154,21 @@ public class TimestampMatrix implements Serializable{
 	 * the timestamp known by all participants
 	 */
 	public synchronized TimestampVector minTimestampVector(){
-		TimestampVector minVector = new TimestampVector(new Vector<String>(participants));
-		boolean first = true;
-		for (String node : participants){
-			TimestampVector row = timestampMatrix.get(node);
-			if (row == null){
-				continue;
-			}
-			if (first){
-				minVector = row.clone();
-				first = false;
-			}else{
-				minVector.mergeMin(row);
-			}
-		}
-		return minVector;
+		return new TimestampVector(index, min.clone());
 	}
 	
 	/**
 	 * clone
 	 */
         public synchronized TimestampMatrix clone(){
-    		TimestampMatrix copy = new TimestampMatrix(new Vector<String>(participants));
-    		for (String node : participants) {
-    			TimestampVector vector = timestampMatrix.get(node);
-    			if (vector != null) {
-    				copy.timestampMatrix.put(node, vector.clone());
-    			}
-    		}
+    		// copy-on-write: rows are copied when they are modified by either matrix
+    		TimestampMatrix copy = new TimestampMatrix(index);
+    		copy.rows = rows;
+    		copy.min = min;
+    		copy.minCount = minCount;
+    		copy.digest = digest;
+    		copy.shared = true;
+    		shared = true;
     		return copy;
         }
 	
@@ -129,44 +176,239 @@ public class TimestampMatrix implements Serializable{
 	 * equals
 	 */
 	@Override
-        public synchronized boolean equals(Object obj) {
+        public boolean equals(Object obj) {
 		if (this == obj) {
 			return true;
 		}
 		if (!(obj instanceof TimestampMatrix)) {
 			return false;
 		}
-		TimestampMatrix other = (TimestampMatrix) obj;
-		if (!timestampMatrix.keySet().equals(other.timestampMatrix.keySet())) {
-			return false;
-		}
-		for (String node : timestampMatrix.keySet()) {
-			TimestampVector local = timestampMatrix.get(node);
-			TimestampVector remote = other.timestampMatrix.get(node);
-			if (local == null) {
-				if (remote != null) {
+		// shared rows are never modified in place (see updateMax)
+		long[][] otherRows = ((TimestampMatrix) obj).sharedRows(index);
+		long[][] rows = sharedRows(index);
+		int length = Math.max(rows.length, otherRows.length);
+		for (int r = 0; r < length; r++) {
+			long[] local = r < rows.length ? rows[r] : null;
+			long[] remote = r < otherRows.length ? otherRows[r] : null;
+			if (local == null || remote == null) {
+				if (local != remote) {
 					return false;
 				}
-			} else if (!local.equals(remote)) {
+			} else if (!equalRows(local, remote)) {
 				return false;
 			}
 		}
 		return true;
 	}
+
+	/**
+	 * @return digest of the matrix (see util.Digest). It is kept up to date
+	 * on every update: matrices that are equal have equal digests.
+	 */
+	public synchronized long digest(){
+		return digest;
+	}
+
 	/**
 	 * toString
 	 */
 	@Override
 	public synchronized String toString() {
 		String all="";
-		if(timestampMatrix==null){
-			return all;
-		}
-		for(Enumeration<String> en=timestampMatrix.keys(); en.hasMoreElements();){
-			String name=en.nextElement();
-			if(timestampMatrix.get(name)!=null)
-				all+=name+":   "+timestampMatrix.get(name)+"\n";
+		for(int r=0; r<rows.length; r++){
+			if(rows[r]!=null)
+				all+=index.idAt(r)+":   "+new TimestampVector(index, rows[r].clone())+"\n";
 		}
 		return all;
 	}
+
+	/**
+	 * @param target
+	 * @return the rows of this matrix, indexed by the participant slots of target
+	 * (null if the node has no row). Rows are shared copy-on-write, as in clone():
+	 * they must not be modified
+	 */
+	synchronized long[][] sharedRows(ParticipantIndex target){
+		if (target == index){
+			shared = true;
+			return rows;
+		}
+		long[][] adapted = new long[0][];
+		for (int r = 0; r < rows.length; r++){
+			if (rows[r] != null){
+				int slot = target.register(index.idAt(r));
+				if (slot >= adapted.length){
+					adapted = Arrays.copyOf(adapted, slot + 1);
+				}
+				adapted[slot] = target.adapt(rows[r], index);
+			}
+		}
+		return adapted;
+	}
+
+	/**
+	 * @return the index of the participant slots of this matrix
+	 */
+	ParticipantIndex getIndex(){
+		return index;
+	}
+
+	/**
+	 * Auxiliary methods
+	 */
+
+	private void init(ParticipantIndex index){
+		this.index = index;
+		rows = new long[0][];
+		min = new long[0];
+		minCount = new int[0];
+		shared = false;
+		ownedRows = new boolean[0];
+		digest = 0;
+	}
+
+	// stops sharing rows, min and minCount with clones (rows themselves are copied by writableRow)
+	private void beforeWrite(){
+		if (shared){
+			rows = rows.clone();
+			min = min.clone();
+			minCount = minCount.clone();
+			ownedRows = new boolean[rows.length];
+			shared = false;
+		}
+	}
+
+	private long[] writableRow(int r){
+		if (!ownedRows[r]){
+			rows[r] = rows[r].clone();
+			ownedRows[r] = true;
+		}
+		return rows[r];
+	}
+
+	private void newRow(int r){
+		rows[r] = TimestampVector.absentSlots(min.length);
+		ownedRows[r] = true;
+		digest += Digest.of(index.idAt(r));
+	}
+
+	// grows rows and columns to (at least) size slots
+	private void ensureCapacity(int size){
+		if (min.length >= size){
+			return;
+		}
+		int length = min.length;
+		int capacity = size;
+		rows = Arrays.copyOf(rows, capacity);
+		for (int r = 0; r < length; r++){
+			if (rows[r] != null){
+				rows[r] = Arrays.copyOf(rows[r], capacity);
+				Arrays.fill(rows[r], length, capacity, ABSENT);
+			}
+		}
+		// all rows have just been copied
+		ownedRows = new boolean[capacity];
+		Arrays.fill(ownedRows, true);
+		min = Arrays.copyOf(min, capacity);
+		Arrays.fill(min, length, capacity, ABSENT);
+		minCount = Arrays.copyOf(minCount, capacity);
+	}
+
+	// sets cell c of row (the row of slot r) and keeps the minimum of column c
+	// and the digest up to date
+	private void setCell(int r, long[] row, int c, long value){
+		long old = row[c];
+		if (old == value){
+			return;
+		}
+		row[c] = value;
+		digest += digestOf(r, c, value) - digestOf(r, c, old);
+		if (value != ABSENT){
+			if (min[c] == ABSENT || value < min[c]){
+				min[c] = value;
+				minCount[c] = 1;
+				return;
+			}
+			if (value == min[c]){
+				minCount[c]++;
+			}
+		}
+		if (old != ABSENT && old == min[c]){
+			minCount[c]--;
+			if (minCount[c] == 0){
+				recomputeMin(c);
+			}
+		}
+	}
+
+	// the only row holding the minimum of column c has changed: scan the column
+	private void recomputeMin(int c){
+		min[c] = ABSENT;
+		minCount[c] = 0;
+		for (long[] row : rows){
+			if (row == null || row[c] == ABSENT){
+				continue;
+			}
+			if (min[c] == ABSENT || row[c] < min[c]){
+				min[c] = row[c];
+				minCount[c] = 1;
+			} else if (row[c] == min[c]){
+				minCount[c]++;
+			}
+		}
+	}
+
+	private long digestOf(int r, int c, long value){
+		if (value == ABSENT){
+			return 0;
+		}
+		return Digest.combine(Digest.combine(Digest.of(index.idAt(r)), Digest.of(index.idAt(c))), value);
+	}
+
+	private static boolean equalRows(long[] a, long[] b){
+		int length = Math.max(a.length, b.length);
+		for (int c = 0; c < length; c++){
+			long x = c < a.length ? a[c] : ABSENT;
+			long y = c < b.length ? b[c] : ABSENT;
+			if (x != y){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException{
+		ConcurrentHashMap<String, TimestampVector> timestampMatrix = new ConcurrentHashMap<String, TimestampVector>();
+		List<String> participants = new Vector<String>();
+		for (int r = 0; r < rows.length; r++){
+			if (rows[r] != null){
+				String id = index.idAt(r);
+				participants.add(id);
+				timestampMatrix.put(id, new TimestampVector(index, rows[r].clone()));
+			}
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("timestampMatrix", timestampMatrix);
+		fields.put("participants", participants);
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		Map<String, TimestampVector> timestampMatrix = (Map<String, TimestampVector>) fields.get("timestampMatrix", null);
+		List<String> participants = (List<String>) fields.get("participants", null);
+
+		if (participants == null){
+			participants = new Vector<String>();
+		}
+		// keeps registration order of slots as in the sender
+		init(ParticipantIndex.forParticipants(participants));
+		ensureCapacity(index.registerAll(participants));
+		if (timestampMatrix != null){
+			for (Map.Entry<String, TimestampVector> entry : timestampMatrix.entrySet()){
+				update(entry.getKey(), entry.getValue());
+			}
+		}
+	}
 }
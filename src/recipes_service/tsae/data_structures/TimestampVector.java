@@ -22,15 +22,20 @@ package recipes_service.tsae.data_structures;
 
 
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Vector;
 
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import lsim.library.api.LSimLogger;
+import util.Digest;
 
 /**
  * @author Joan-Manuel Marques
@@ -47,19 +52,47 @@ public class TimestampVector implements Serializable{
 	/**
 	 * This class stores a summary of the timestamps seen by a node.
 	 * For each node, stores the timestamp of the last received operation.
+	 * 
+	 * Sequence numbers are stored in a long[] indexed by the slot that
+	 * the ParticipantIndex of the group of the vector assigns to each
+	 * node. The serialized form is
+	 * the same one used when the vector was a ConcurrentHashMap<String, Timestamp>.
 	 */
-	
-        private ConcurrentHashMap<String, Timestamp> timestampVector= new ConcurrentHashMap<String, Timestamp>();
-        private final List<String> participants;
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("timestampVector", ConcurrentHashMap.class),
+		new ObjectStreamField("participants", List.class)
+	};
+
+	// sequence number of a slot whose node does not participate in this vector
+	static final long ABSENT = Long.MIN_VALUE;
+
+        private transient ParticipantIndex index;
+        private transient long[] seqnumbers;
+        // true when seqnumbers is shared with a clone (it is copied before being modified)
+        private transient boolean shared = false;
+        // sum of the digests of the timestamps of the vector (see util.Digest)
+        private transient long digest = 0;
 
         public TimestampVector (List<String> participants){
+                this(ParticipantIndex.forParticipants(participants), participants);
+        }
+
+        TimestampVector (ParticipantIndex index, List<String> participants){
                 // create and empty TimestampVector
-                this.participants = new Vector<String>();
-                for (Iterator<String> it = participants.iterator(); it.hasNext(); ){
-                        String id = it.next();
-                        this.participants.add(id);
+                this.index = index;
+                this.seqnumbers = absentSlots(index.registerAll(participants));
+                for (String id : participants){
+                        int slot = slotFor(id);
                         // when sequence number of timestamp < 0 it means that the timestamp is the null timestamp
-                        timestampVector.put(id, new Timestamp(id, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER));
+                        set(slot, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+                }
+        }
+
+        TimestampVector (ParticipantIndex index, long[] seqnumbers){
+                this.index = index;
+                this.seqnumbers = seqnumbers;
+                for (int i = 0; i < seqnumbers.length; i++){
+                        digest += digestOf(i, seqnumbers[i]);
                 }
         }
 
@@ -74,15 +107,11 @@ public class TimestampVector implements Serializable{
                         return;
                 }
 
-                if (!timestampVector.containsKey(timestamp.getHostid())){
-                        if (!participants.contains(timestamp.getHostid())){
-                                participants.add(timestamp.getHostid());
-                        }
-                }
-
-                Timestamp current = timestampVector.get(timestamp.getHostid());
-                if (current == null || timestamp.compare(current) > 0){
-                        timestampVector.put(timestamp.getHostid(), timestamp);
+                beforeWrite();
+                int slot = slotFor(timestamp.getHostid());
+                long current = seqnumbers[slot];
+                if (current == ABSENT || timestamp.getSeqnumber() > current){
+                        set(slot, timestamp.getSeqnumber());
                 }
         }
 	
@@ -90,25 +119,22 @@ public class TimestampVector implements Serializable{
 	 * merge in another vector, taking the elementwise maximum
 	 * @param tsVector (a timestamp vector)
 	 */
-        public synchronized void updateMax(TimestampVector tsVector){
+        public void updateMax(TimestampVector tsVector){
                 if (tsVector == null){
                         return;
                 }
 
-                for (String id : tsVector.timestampVector.keySet()){
-                        Timestamp other = tsVector.timestampVector.get(id);
-                        if (other == null){
-                                continue;
-                        }
-                        if (!timestampVector.containsKey(id)){
-                                if (!participants.contains(id)){
-                                        participants.add(id);
+                // read under the lock of tsVector, before taking ours (locks are never nested)
+                long[] other = tsVector.toArray(index);
+                synchronized (this){
+                        beforeWrite();
+                        ensureCapacity(other.length);
+                        for (int i = 0; i < other.length; i++){
+                                long seq = other[i];
+                                if (seq != ABSENT && (seqnumbers[i] == ABSENT || seq > seqnumbers[i])){
+                                        set(i, seq);
                                 }
                         }
-                        Timestamp current = timestampVector.get(id);
-                        if (current == null || other.compare(current) > 0){
-                                timestampVector.put(id, other);
-                        }
                 }
         }
 	
@@ -119,10 +145,11 @@ public class TimestampVector implements Serializable{
 	 * received.
 	 */
         public synchronized Timestamp getLast(String node){
-                if (node == null){
+                int slot = index.slotOf(node);
+                if (slot < 0 || slot >= seqnumbers.length || seqnumbers[slot] == ABSENT){
                         return null;
                 }
-                return timestampVector.get(node);
+                return new Timestamp(index.idAt(slot), seqnumbers[slot]);
         }
 	
 	/**
@@ -131,30 +158,21 @@ public class TimestampVector implements Serializable{
 	 * After merging, local node will have the smallest timestamp for each node.
 	 *  @param tsVector (timestamp vector)
 	 */
-        public synchronized void mergeMin(TimestampVector tsVector){
+        public void mergeMin(TimestampVector tsVector){
                 if (tsVector == null){
                         return;
                 }
 
-                for (String id : new Vector<String>(participants)){
-                        Timestamp other = tsVector.getLast(id);
-                        if (other == null){
-                                continue;
-                        }
-                        Timestamp current = timestampVector.get(id);
-                        if (current == null || current.compare(other) > 0){
-                                timestampVector.put(id, other);
-                        }
-                }
-
-                for (String id : tsVector.timestampVector.keySet()){
-                        if (!timestampVector.containsKey(id)){
-                                if (!participants.contains(id)){
-                                        participants.add(id);
-                                }
-                                Timestamp other = tsVector.timestampVector.get(id);
-                                if (other != null){
-                                        timestampVector.put(id, other);
+                // read under the lock of tsVector, before taking ours (locks are never nested)
+                long[] other = tsVector.toArray(index);
+                synchronized (this){
+                        beforeWrite();
+                        ensureCapacity(other.length);
+                        for (int i = 0; i < other.length; i++){
+                                long seq = other[i];
+                                // nodes only known by tsVector are added to the local vector
+                                if (seq != ABSENT && (seqnumbers[i] == ABSENT || seqnumbers[i] > seq)){
+                                        set(i, seq);
                                 }
                         }
                 }
@@ -164,19 +182,19 @@ public class TimestampVector implements Serializable{
 	 * clone
 	 */
         public synchronized TimestampVector clone(){
-                TimestampVector clone = new TimestampVector(new Vector<String>(participants));
-
-                for (String id : participants){
-                        clone.timestampVector.put(id, timestampVector.get(id));
-                }
-
+                // copy-on-write: the first one to be modified copies the array
+                TimestampVector clone = new TimestampVector(index, new long[0]);
+                clone.seqnumbers = seqnumbers;
+                clone.digest = digest;
+                clone.shared = true;
+                shared = true;
                 return clone;
         }
 	
 	/**
 	 * equals
 	 */
-        public synchronized boolean equals(Object obj){
+        public boolean equals(Object obj){
 
                 if (this == obj)
                         return true;
@@ -184,13 +202,28 @@ public class TimestampVector implements Serializable{
                         return false;
                 if (getClass() != obj.getClass())
                         return false;
-                TimestampVector other = (TimestampVector) obj;
-                return timestampVector.equals(other.timestampVector);
+                long[] other = ((TimestampVector) obj).toArray(index);
+                long[] seqnumbers = toArray(index);
+                int length = Math.max(seqnumbers.length, other.length);
+                for (int i = 0; i < length; i++){
+                        long local = i < seqnumbers.length ? seqnumbers[i] : ABSENT;
+                        long remote = i < other.length ? other[i] : ABSENT;
+                        if (local != remote){
+                                return false;
+                        }
+                }
+                return true;
         }
 
         @Override
         public synchronized int hashCode() {
-                return timestampVector.hashCode();
+                int hash = 0;
+                for (int i = 0; i < seqnumbers.length; i++){
+                        if (seqnumbers[i] != ABSENT){
+                                hash += index.idAt(i).hashCode() ^ Long.hashCode(seqnumbers[i]);
+                        }
+                }
+                return hash;
         }
 
 	/**
@@ -199,14 +232,138 @@ public class TimestampVector implements Serializable{
 	@Override
 	public synchronized String toString() {
 		String all="";
-		if(timestampVector==null){
-			return all;
-		}
-		for(Enumeration<String> en=timestampVector.keys(); en.hasMoreElements();){
-			String name=en.nextElement();
-			if(timestampVector.get(name)!=null)
-				all+=timestampVector.get(name)+"\n";
+		for(int i=0; i<seqnumbers.length; i++){
+			if(seqnumbers[i]!=ABSENT)
+				all+=new Timestamp(index.idAt(i), seqnumbers[i])+"\n";
 		}
 		return all;
 	}
+
+	/**
+	 * @return digest of the vector (see util.Digest). It is kept up to date
+	 * on every update: vectors that are equal have equal digests.
+	 */
+	public synchronized long digest(){
+		return digest;
+	}
+
+	/**
+	 * @param older (a timestamp vector)
+	 * @return number of operations covered by this vector and not
+	 * by older (0 if older is null)
+	 */
+	public long lag(TimestampVector older){
+		if (older == null){
+			return 0;
+		}
+		long[] other = older.toArray(index);
+		long[] seqnumbers = toArray(index);
+		long lag = 0;
+		for (int i = 0; i < seqnumbers.length; i++){
+			if (seqnumbers[i] == ABSENT){
+				continue;
+			}
+			long seen = i < other.length && other[i] != ABSENT ? other[i] : -1;
+			if (seqnumbers[i] > seen){
+				lag += seqnumbers[i] - seen;
+			}
+		}
+		return lag;
+	}
+
+	/**
+	 * @param target
+	 * @return a copy of the sequence numbers of this vector, indexed by
+	 * the participant slots of target
+	 */
+	synchronized long[] toArray(ParticipantIndex target){
+		return target == index ? seqnumbers.clone() : target.adapt(seqnumbers, index);
+	}
+
+	/**
+	 * @return the index of the participant slots of this vector
+	 */
+	ParticipantIndex getIndex(){
+		return index;
+	}
+
+	/**
+	 * Auxiliary methods
+	 */
+
+	static long[] absentSlots(int size){
+		long[] slots = new long[size];
+		Arrays.fill(slots, ABSENT);
+		return slots;
+	}
+
+	// sets the sequence number of slot and keeps the digest up to date
+	private void set(int slot, long seq){
+		digest += digestOf(slot, seq) - digestOf(slot, seqnumbers[slot]);
+		seqnumbers[slot] = seq;
+	}
+
+	private long digestOf(int slot, long seq){
+		if (seq == ABSENT){
+			return 0;
+		}
+		return Digest.combine(Digest.of(index.idAt(slot)), seq);
+	}
+
+	private void beforeWrite(){
+		if (shared){
+			seqnumbers = seqnumbers.clone();
+			shared = false;
+		}
+	}
+
+	// registers id (if needed) and makes room for its slot
+	private int slotFor(String id){
+		int slot = index.register(id);
+		ensureCapacity(slot + 1);
+		return slot;
+	}
+
+	private void ensureCapacity(int size){
+		if (seqnumbers.length < size){
+			int length = seqnumbers.length;
+			seqnumbers = Arrays.copyOf(seqnumbers, size);
+			Arrays.fill(seqnumbers, length, seqnumbers.length, ABSENT);
+		}
+	}
+
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException{
+		ConcurrentHashMap<String, Timestamp> timestampVector = new ConcurrentHashMap<String, Timestamp>();
+		List<String> participants = new Vector<String>();
+		for (int i = 0; i < seqnumbers.length; i++){
+			if (seqnumbers[i] != ABSENT){
+				String id = index.idAt(i);
+				participants.add(id);
+				timestampVector.put(id, new Timestamp(id, seqnumbers[i]));
+			}
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("timestampVector", timestampVector);
+		fields.put("participants", participants);
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		Map<String, Timestamp> timestampVector = (Map<String, Timestamp>) fields.get("timestampVector", null);
+		List<String> participants = (List<String>) fields.get("participants", null);
+
+		if (participants == null){
+			participants = new Vector<String>();
+		}
+		// keeps registration order of slots as in the sender
+		index = ParticipantIndex.forParticipants(participants);
+		seqnumbers = absentSlots(index.registerAll(participants));
+		if (timestampVector != null){
+			for (Map.Entry<String, Timestamp> entry : timestampVector.entrySet()){
+				set(slotFor(entry.getKey()), entry.getValue().getSeqnumber());
+			}
+		}
+	}
 }
@@ -0,0 +1,129 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import recipes_service.ServerData;
+
+/**
+ * Schedules the rounds of TSAE sessions started by a server
+ * (see TSAESessionOriginatorSide.sessionWithN).
+ * 
+ * The period between two rounds adapts to the observed divergence: it is
+ * halved (down to the minimum session period) after a round that exchanged
+ * operations, and doubled (up to the maximum session period) after a round
+ * that exchanged nothing or did not complete any session. Each delay is
+ * randomly changed by up to +-sessionPeriodJitter, so that servers do not
+ * start their rounds at the same time.
+ */
+public class AdaptiveSessionScheduler {
+	private ServerData serverData;
+	private TSAESessionOriginatorSide originator;
+	private Timer timer = new Timer("TSAESessionScheduler");
+	private Random rnd = new Random();
+	// current period (in milliseconds)
+	private long period;
+	private boolean cancelled = false;
+
+	public AdaptiveSessionScheduler(ServerData serverData, TSAESessionOriginatorSide originator){
+		this.serverData = serverData;
+		this.originator = originator;
+	}
+
+	/**
+	 * schedules the first round after delay milliseconds
+	 * @param delay
+	 */
+	public synchronized void start(long delay){
+		period = clamp(serverData.getSessionPeriod());
+		schedule(delay);
+	}
+
+	/**
+	 * no more rounds are started
+	 */
+	public synchronized void cancel(){
+		cancelled = true;
+		timer.cancel();
+	}
+
+	/**
+	 * @return current period (in milliseconds) between two rounds, without jitter
+	 */
+	public synchronized long getPeriod(){
+		return period;
+	}
+
+	/**
+	 * @param period
+	 * @param stats: statistics of the last round (null if no round could be done)
+	 * @return period that follows period after a round with stats
+	 */
+	long nextPeriod(long period, SessionRoundStats stats){
+		if (stats != null && stats.getCompleted() > 0 && stats.getOperationsTransferred() > 0){
+			// servers are diverging: exchange operations more often
+			return clamp(period / 2);
+		}
+		// nothing to exchange (or nobody to exchange with): back off
+		return clamp(period > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : period * 2);
+	}
+
+	/**
+	 * Auxiliary methods
+	 */
+
+	private synchronized void schedule(long delay){
+		if (cancelled){
+			return;
+		}
+		timer.schedule(new TimerTask(){
+			public void run(){
+				round();
+			}
+		}, Math.max(delay, 0));
+	}
+
+	private void round(){
+		SessionRoundStats stats = null;
+		try {
+			stats = originator.sessionWithN(serverData.getNumberSessions());
+		} finally {
+			long delay;
+			synchronized (this){
+				period = nextPeriod(period, stats);
+				delay = jitter(period);
+			}
+			schedule(delay);
+		}
+	}
+
+	private long clamp(long period){
+		return Math.min(Math.max(period, serverData.getMinSessionPeriod()), serverData.getMaxSessionPeriod());
+	}
+
+	private long jitter(long period){
+		double jitter = serverData.getSessionPeriodJitter();
+		return Math.round(period * (1 + jitter * (2 * rnd.nextDouble() - 1)));
+	}
+}
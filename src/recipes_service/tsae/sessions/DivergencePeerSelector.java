@@ -0,0 +1,95 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Vector;
+
+import recipes_service.ServerData;
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Chooses the partners at random, favouring the ones whose summary is
+ * furthest from the local one: the ones with more operations to exchange.
+ * The divergence of a partner is estimated with its last known summary (its
+ * row in the local ack matrix): number of local operations it has not seen
+ * plus number of its operations the local server has not seen.
+ * A partner is chosen with a probability proportional to 1 + divergence (weighted
+ * sampling without replacement, Efraimidis-Spirakis), so partners
+ * that do not diverge are still contacted from time to time.
+ */
+public class DivergencePeerSelector implements PeerSelector {
+	private static Random rnd = new Random();
+
+	public List<Host> selectPartners(ServerData serverData, int num){
+		List<Host> v = new Vector<Host>();
+		Hosts hosts = serverData.getHosts();
+		TimestampMatrix ack = serverData.getAckClone();
+		if (hosts == null || num < 1){
+			return v;
+		}
+		if (ack == null){
+			return hosts.getRandomPartners(num);
+		}
+		TimestampVector summary = serverData.getSummaryClone();
+
+		// keeps the num partners with the largest keys (smallest key first)
+		PriorityQueue<Candidate> chosen = new PriorityQueue<Candidate>();
+		for (int i = 0; i < hosts.partners(); i++){
+			Host partner = hosts.getPartner(i);
+			TimestampVector partnerSummary = ack.getTimestampVector(partner.getId());
+			long divergence = summary.lag(partnerSummary);
+			if (partnerSummary != null){
+				divergence += partnerSummary.lag(summary);
+			}
+			Candidate candidate = new Candidate(partner, Math.log(1.0 - rnd.nextDouble()) / (1 + divergence));
+			if (chosen.size() < num){
+				chosen.add(candidate);
+			} else if (chosen.peek().key < candidate.key){
+				chosen.poll();
+				chosen.add(candidate);
+			}
+		}
+		while (!chosen.isEmpty()){
+			v.add(0, chosen.poll().host);
+		}
+		return v;
+	}
+
+	private static class Candidate implements Comparable<Candidate> {
+		private Host host;
+		private double key;
+
+		Candidate(Host host, double key){
+			this.host = host;
+			this.key = key;
+		}
+
+		public int compareTo(Candidate other){
+			return Double.compare(key, other.key);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.lang.reflect.Method;
+
+/**
+ * Threads that run TSAE sessions.
+ * 
+ * PLATFORM: platform threads.
+ * VIRTUAL: virtual threads, so that threads blocked in socket I/O do not
+ * hold a platform thread. Virtual threads are only available from Java 21:
+ * on older JVMs daemon platform threads are used instead.
+ */
+public enum ExecutionMode {
+	PLATFORM, VIRTUAL;
+
+	/**
+	 * starts a new thread that runs task
+	 * @param task
+	 * @param name: name of the thread
+	 * @param daemon: true if the thread does not prevent the JVM from exiting
+	 * (virtual threads always are daemon threads)
+	 * @return the started thread
+	 */
+	public Thread start(Runnable task, String name, boolean daemon){
+		Thread thread = this == VIRTUAL ? VirtualThreads.unstarted(task) : null;
+		if (thread == null){
+			thread = new Thread(task);
+			thread.setDaemon(daemon || this == VIRTUAL);
+		}
+		thread.setName(name);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * @return true if threads of this mode are actually virtual threads
+	 */
+	public boolean isVirtual(){
+		return this == VIRTUAL && VirtualThreads.SUPPORTED;
+	}
+
+	/**
+	 * @param name: "platform" or "virtual" (case insensitive)
+	 * @return the mode named name
+	 */
+	public static ExecutionMode parse(String name){
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	// access to Thread.ofVirtual() without requiring Java 21 to compile
+	private static class VirtualThreads {
+		private static final Method OF_VIRTUAL;
+		private static final Method UNSTARTED;
+		static final boolean SUPPORTED;
+
+		static {
+			Method ofVirtual = null;
+			Method unstarted = null;
+			try {
+				ofVirtual = Thread.class.getMethod("ofVirtual");
+				unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+			} catch (ReflectiveOperationException e) {
+				ofVirtual = null;
+			}
+			OF_VIRTUAL = ofVirtual;
+			UNSTARTED = unstarted;
+			SUPPORTED = ofVirtual != null;
+		}
+
+		// returns null if virtual threads are not supported
+		static Thread unstarted(Runnable task){
+			if (!SUPPORTED){
+				return null;
+			}
+			try {
+				return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+			} catch (ReflectiveOperationException e) {
+				return null;
+			}
+		}
+	}
+}
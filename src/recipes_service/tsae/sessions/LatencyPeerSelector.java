@@ -0,0 +1,98 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import recipes_service.ServerData;
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+import recipes_service.tsae.sessions.PeerLatencies.PeerLatency;
+
+/**
+ * Chooses the closest partners: the ones with the smallest session
+ * round-trip time (see PeerLatencies). Partners that have not been
+ * measured yet are chosen first.
+ * Each partner of a round is, with probability EXPLORATION, chosen at
+ * random among the remaining partners instead of being the closest one,
+ * so distant partners are also contacted: every partner takes part in a
+ * round with probability of, at least, EXPLORATION/partners, which
+ * guarantees that all servers converge.
+ */
+public class LatencyPeerSelector implements PeerSelector {
+	private static final double EXPLORATION = 0.2;
+	private static Random rnd = new Random();
+
+	public List<Host> selectPartners(ServerData serverData, int num){
+		List<Host> v = new Vector<Host>();
+		Hosts hosts = serverData.getHosts();
+		if (hosts == null){
+			return v;
+		}
+		PeerLatencies latencies = serverData.getPeerLatencies();
+		// distances are read once: latencies are updated concurrently
+		// by other sessions and sorting requires a consistent order
+		List<Candidate> candidates = new ArrayList<Candidate>(hosts.partners());
+		for (int i = 0; i < hosts.partners(); i++){
+			Host partner = hosts.getPartner(i);
+			candidates.add(new Candidate(partner, distance(latencies, partner)));
+		}
+		// partners at the same distance are chosen at random
+		Collections.shuffle(candidates, rnd);
+		Collections.sort(candidates);
+		num = Math.min(num, candidates.size());
+		while (v.size() < num){
+			int i = rnd.nextDouble() < EXPLORATION ? rnd.nextInt(candidates.size()) : 0;
+			v.add(candidates.remove(i).host);
+		}
+		return v;
+	}
+
+	/**
+	 * @return session round-trip time (or connection time if no session has been
+	 * measured) to partner in milliseconds (-1 if it has not been measured)
+	 */
+	private static double distance(PeerLatencies latencies, Host partner){
+		PeerLatency latency = latencies.get(partner.getId());
+		if (latency == null){
+			return -1;
+		}
+		return latency.getSessions() > 0 ? latency.getRoundTripTime() : latency.getConnectTime();
+	}
+
+	private static class Candidate implements Comparable<Candidate> {
+		private Host host;
+		private double distance;
+
+		Candidate(Host host, double distance){
+			this.host = host;
+			this.distance = distance;
+		}
+
+		public int compareTo(Candidate other){
+			return Double.compare(distance, other.distance);
+		}
+	}
+}
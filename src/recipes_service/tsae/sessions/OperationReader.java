@@ -0,0 +1,147 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+import java.util.List;
+
+import communication.ObjectInputStream_DS;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
+import recipes_service.ServerData;
+import recipes_service.communication.Message;
+import recipes_service.communication.MessageOperation;
+import recipes_service.communication.MessageOperationBatch;
+import recipes_service.communication.MsgType;
+import recipes_service.data.Operation;
+
+/**
+ * Receives the operations sent by the partner of a TSAE session and
+ * applies them to the local server data, until a message that is not
+ * an operation arrives.
+ * In a pipelined session it runs in its own thread, so that the
+ * operations of the partner are received while the local operations
+ * are being sent.
+ */
+class OperationReader implements Runnable {
+	private ObjectInputStream_DS in;
+	private ServerData serverData;
+	private String side;
+	private int sessionNumber;
+
+	// first message that is not an operation (null if reading failed)
+	private Message last = null;
+	// why reading failed (null if it did not fail)
+	private IOException failure = null;
+	// number of received operations
+	private int received = 0;
+	private Thread thread;
+
+	OperationReader(ObjectInputStream_DS in, ServerData serverData, String side, int sessionNumber){
+		this.in = in;
+		this.serverData = serverData;
+		this.side = side;
+		this.sessionNumber = sessionNumber;
+	}
+
+	public void run(){
+		try {
+			last = receive((Message) in.readObject());
+		} catch (ClassNotFoundException e) {
+			LSimLogger.log(Level.FATAL, "["+side+"] [session: "+sessionNumber+"]" + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * starts receiving operations in a new thread (of the execution mode of the server)
+	 */
+	void start(){
+		thread = serverData.getExecutionMode().start(this, "TSAEOperationReader", true);
+	}
+
+	/**
+	 * waits until the reader finishes
+	 * @return the first received message that is not an operation
+	 * (null if the session failed)
+	 */
+	Message lastMessage(){
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		return last;
+	}
+
+	/**
+	 * @return the exception that stopped the reader (null if it did not fail)
+	 */
+	IOException getFailure(){
+		return failure;
+	}
+
+	/**
+	 * applies msg and the following operation messages
+	 * @param msg: first received message
+	 * @return the first received message that is not an operation
+	 */
+	Message receive(Message msg) throws IOException, ClassNotFoundException{
+		LSimLogger.log(Level.TRACE, "["+side+"] [session: "+sessionNumber+"] received message: "+msg);
+		while (msg.type() == MsgType.OPERATION || msg.type() == MsgType.OPERATION_BATCH){
+			received += apply(serverData, msg);
+			msg = (Message) in.readObject();
+			LSimLogger.log(Level.TRACE, "["+side+"] [session: "+sessionNumber+"] received message: "+msg);
+		}
+		return msg;
+	}
+
+	/**
+	 * @return number of operations received so far
+	 */
+	int getReceived(){
+		return received;
+	}
+
+	/**
+	 * applies the operations carried by msg
+	 * @param serverData
+	 * @param msg: a MessageOperation or a MessageOperationBatch
+	 * @return number of operations carried by msg
+	 */
+	static int apply(ServerData serverData, Message msg){
+		if (msg.type() == MsgType.OPERATION_BATCH){
+			List<Operation> operations = ((MessageOperationBatch) msg).getOperations();
+			serverData.applyOperations(operations);
+			return operations.size();
+		} else {
+			MessageOperation msgOp = (MessageOperation) msg;
+			Operation op = msgOp.getOperation();
+			serverData.applyOperation(op);
+			return 1;
+		}
+	}
+}
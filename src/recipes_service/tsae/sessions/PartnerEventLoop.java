@@ -0,0 +1,154 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import communication.FrameChannel;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
+import recipes_service.ServerData;
+import recipes_service.communication.Connection;
+
+/**
+ * Serves the TSAE sessions of many partner connections from a single
+ * thread, with a Selector and non-blocking channels (instead of a
+ * TSAESessionPartnerSide thread per connection).
+ * Each connection runs the partner side of the protocol as a state
+ * machine (see TSAESessionPartnerChannel).
+ */
+public class PartnerEventLoop extends Thread {
+	// maximum time (in milliseconds) between two checks of idle connections and of the end of the server
+	private static final int SELECT_TIMEOUT = 1000;
+
+	private Selector selector;
+	private ServerData serverData;
+	// accepted channels not registered in the selector yet
+	private Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<SocketChannel>();
+
+	public PartnerEventLoop(ServerData serverData) throws IOException{
+		super("TSAEPartnerEventLoop");
+		setDaemon(true);
+		this.serverData = serverData;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * the TSAE sessions of channel will be served by this loop
+	 * @param channel
+	 */
+	public void serve(SocketChannel channel){
+		accepted.add(channel);
+		selector.wakeup();
+	}
+
+	public void run(){
+		while (!serverData.end()){
+			try {
+				selector.select(SELECT_TIMEOUT);
+			} catch (IOException e) {
+				LSimLogger.log(Level.ERROR, "[PartnerEventLoop] " + e.getMessage());
+				break;
+			}
+			registerAccepted();
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()){
+				SelectionKey key = it.next();
+				it.remove();
+				handle(key);
+			}
+			closeIdle();
+		}
+		for (SelectionKey key : selector.keys()){
+			close(key);
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Auxiliary methods
+	 */
+
+	private void registerAccepted(){
+		SocketChannel channel;
+		while ((channel = accepted.poll()) != null){
+			try {
+				FrameChannel frameChannel = new FrameChannel(channel);
+				channel.register(selector, SelectionKey.OP_READ, new TSAESessionPartnerChannel(frameChannel, serverData));
+			} catch (IOException e) {
+				try {
+					channel.close();
+				} catch (IOException e1) {
+				}
+			}
+		}
+	}
+
+	private void handle(SelectionKey key){
+		TSAESessionPartnerChannel session = (TSAESessionPartnerChannel) key.attachment();
+		try {
+			if (key.isReadable() && !session.onReadable()){
+				close(key);
+				return;
+			}
+			// answers that the channel does not accept now are sent when it becomes writable
+			boolean sent = session.getChannel().flush();
+			key.interestOps(sent ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} catch (ClassNotFoundException e) {
+			LSimLogger.log(Level.FATAL, "[PartnerEventLoop] " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		} catch (IOException | CancelledKeyException e) {
+			close(key);
+		}
+	}
+
+	// closes the connections that have not started a session for too long
+	// and the ones whose session has timed out
+	private void closeIdle(){
+		long now = System.currentTimeMillis();
+		for (SelectionKey key : selector.keys()){
+			TSAESessionPartnerChannel session = (TSAESessionPartnerChannel) key.attachment();
+			if (session.isTimedOut(now)){
+				LSimLogger.log(Level.DEBUG, "[PartnerEventLoop] TSAE session timed out");
+				serverData.sessionTimedOut();
+				close(key);
+			} else if (now - session.getLastActivity() > Connection.PARTNER_IDLE_TIME){
+				close(key);
+			}
+		}
+	}
+
+	private void close(SelectionKey key){
+		key.cancel();
+		((TSAESessionPartnerChannel) key.attachment()).getChannel().close();
+	}
+}
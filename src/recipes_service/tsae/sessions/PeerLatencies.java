@@ -0,0 +1,126 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latencies to each partner (by Host.getId()) measured by the TSAE sessions
+ * started by the local server: time to open a connection and round-trip time
+ * of a session (from the request to the first answer of the partner).
+ * Both are kept as exponentially weighted moving averages, so that they
+ * follow changes of the network.
+ */
+public class PeerLatencies {
+	// weight of a new sample in the moving averages
+	private static final double ALPHA = 0.2;
+
+	private ConcurrentHashMap<String, PeerLatency> latencies = new ConcurrentHashMap<String, PeerLatency>();
+
+	/**
+	 * a connection to partner has been opened in millis milliseconds
+	 */
+	void connected(String partner, double millis){
+		latency(partner).connected(millis);
+	}
+
+	/**
+	 * partner has answered a session request after millis milliseconds
+	 * (or the session has been abandoned after millis milliseconds)
+	 */
+	void answered(String partner, double millis){
+		latency(partner).answered(millis);
+	}
+
+	/**
+	 * @param partner
+	 * @return latencies to partner (null if it has not been measured)
+	 */
+	public PeerLatency get(String partner){
+		return latencies.get(partner);
+	}
+
+	/**
+	 * @return latencies to each measured partner (by partner id)
+	 */
+	public Map<String, PeerLatency> getAll(){
+		return new TreeMap<String, PeerLatency>(latencies);
+	}
+
+	public String toString(){
+		return "PeerLatencies " + getAll();
+	}
+
+	private PeerLatency latency(String partner){
+		PeerLatency latency = latencies.get(partner);
+		if (latency == null){
+			latencies.putIfAbsent(partner, new PeerLatency());
+			latency = latencies.get(partner);
+		}
+		return latency;
+	}
+
+	/**
+	 * Latencies to a partner (in milliseconds; -1 if they have not been measured)
+	 */
+	public static class PeerLatency {
+		private double connectTime = -1;
+		private double roundTripTime = -1;
+		private long connections = 0;
+		private long sessions = 0;
+
+		synchronized void connected(double millis){
+			connectTime = connections++ == 0 ? millis : ALPHA * millis + (1 - ALPHA) * connectTime;
+		}
+
+		synchronized void answered(double millis){
+			roundTripTime = sessions++ == 0 ? millis : ALPHA * millis + (1 - ALPHA) * roundTripTime;
+		}
+
+		public synchronized double getConnectTime(){
+			return connectTime;
+		}
+
+		public synchronized double getRoundTripTime(){
+			return roundTripTime;
+		}
+
+		/**
+		 * @return number of measured connections
+		 */
+		public synchronized long getConnections(){
+			return connections;
+		}
+
+		/**
+		 * @return number of measured sessions
+		 */
+		public synchronized long getSessions(){
+			return sessions;
+		}
+
+		public synchronized String toString(){
+			return String.format("[connect=%.2fms (%d), rtt=%.2fms (%d)]", connectTime, connections, roundTripTime, sessions);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.List;
+
+import recipes_service.ServerData;
+import recipes_service.communication.Host;
+
+/**
+ * Strategy that chooses the partners of each round of TSAE sessions
+ * (see TSAESessionOriginatorSide.sessionWithN).
+ */
+public interface PeerSelector {
+
+	/**
+	 * @param serverData: the local server
+	 * @param num
+	 * @return at most num different partners (none of them the local server)
+	 */
+	List<Host> selectPartners(ServerData serverData, int num);
+
+	/**
+	 * @param name: "uniform", "roundRobin", "divergence" or "latency"
+	 * @return a new selector of the strategy called name (null if there is none)
+	 */
+	static PeerSelector get(String name){
+		if ("uniform".equalsIgnoreCase(name)){
+			return new UniformPeerSelector();
+		}
+		if ("roundRobin".equalsIgnoreCase(name)){
+			return new RoundRobinPeerSelector();
+		}
+		if ("divergence".equalsIgnoreCase(name)){
+			return new DivergencePeerSelector();
+		}
+		if ("latency".equalsIgnoreCase(name)){
+			return new LatencyPeerSelector();
+		}
+		return null;
+	}
+}
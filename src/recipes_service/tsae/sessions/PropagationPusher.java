@@ -0,0 +1,100 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
+
+/**
+ * Propagates local writes to other servers in the background.
+ * 
+ * A write requests a push (a round of TSAE sessions with propDegree
+ * partners) and returns immediately, without waiting for the sessions.
+ * Requests that arrive while a push is waiting or running are merged:
+ * the next push carries all the operations written since the previous one.
+ */
+public class PropagationPusher extends Thread {
+	private TSAESessionOriginatorSide originator;
+	// number of partners of the next push (0: no push pending)
+	private int pending = 0;
+	private boolean stopped = false;
+	// number of requested and done pushes
+	private long requests = 0;
+	private long pushes = 0;
+
+	public PropagationPusher(TSAESessionOriginatorSide originator){
+		super("TSAEPropagationPusher");
+		setDaemon(true);
+		this.originator = originator;
+	}
+
+	/**
+	 * requests a push to degree partners
+	 * @param degree
+	 */
+	public synchronized void push(int degree){
+		if (degree <= 0 || stopped){
+			return;
+		}
+		requests++;
+		pending = Math.max(pending, degree);
+		notify();
+	}
+
+	/**
+	 * pending pushes are discarded and no more pushes are done
+	 */
+	public synchronized void shutdown(){
+		stopped = true;
+		notify();
+	}
+
+	public synchronized long getRequests(){
+		return requests;
+	}
+
+	public synchronized long getPushes(){
+		return pushes;
+	}
+
+	public void run(){
+		while (true){
+			int degree;
+			synchronized (this){
+				while (pending == 0 && !stopped){
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (stopped){
+					return;
+				}
+				degree = pending;
+				pending = 0;
+				pushes++;
+			}
+			SessionRoundStats stats = originator.sessionWithN(degree);
+			LSimLogger.log(Level.DEBUG, "[PropagationPusher] push "+pushes+" ("+requests+" requests): "+stats);
+		}
+	}
+}
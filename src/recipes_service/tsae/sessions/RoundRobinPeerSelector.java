@@ -0,0 +1,58 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.List;
+import java.util.Vector;
+
+import recipes_service.ServerData;
+import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
+
+/**
+ * Chooses the partners one after the other, so that every partner
+ * is contacted once each partners()/num rounds.
+ * Each server starts with the partner that follows it in the list of
+ * hosts, so that servers do not choose the same partners at the same time.
+ */
+public class RoundRobinPeerSelector implements PeerSelector {
+	// position (among the partners) of the next partner (-1: not initialized)
+	private int next = -1;
+
+	public synchronized List<Host> selectPartners(ServerData serverData, int num){
+		List<Host> v = new Vector<Host>();
+		Hosts hosts = serverData.getHosts();
+		if (hosts == null || hosts.partners() == 0){
+			return v;
+		}
+		int partners = hosts.partners();
+		if (next < 0){
+			next = Math.max(hosts.getIds().indexOf(serverData.getId()), 0);
+		}
+		num = Math.min(num, partners);
+		for (int i = 0; i < num; i++){
+			next = next % partners;
+			v.add(hosts.getPartner(next));
+			next++;
+		}
+		return v;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outcome of a round of TSAE sessions started by
+ * TSAESessionOriginatorSide.sessionWithN().
+ * Counters are updated by the threads that run the sessions of the round.
+ */
+public class SessionRoundStats {
+	private final int partners;
+	private final long start = System.currentTimeMillis();
+	private final AtomicInteger completed = new AtomicInteger(0);
+	private final AtomicInteger failed = new AtomicInteger(0);
+	// failed sessions that were abandoned because of a timeout
+	private final AtomicInteger timedOut = new AtomicInteger(0);
+	private final AtomicInteger operationsSent = new AtomicInteger(0);
+	private final AtomicInteger operationsReceived = new AtomicInteger(0);
+	// time (in milliseconds) until the end of the round (-1 while the round is running)
+	private volatile long duration = -1;
+	private volatile int unfinished = -1;
+
+	public SessionRoundStats(int partners){
+		this.partners = partners;
+	}
+
+	void sessionCompleted(){
+		completed.incrementAndGet();
+	}
+
+	void sessionFailed(){
+		failed.incrementAndGet();
+	}
+
+	void sessionTimedOut(){
+		timedOut.incrementAndGet();
+		failed.incrementAndGet();
+	}
+
+	void operationsSent(int operations){
+		operationsSent.addAndGet(operations);
+	}
+
+	void operationsReceived(int operations){
+		operationsReceived.addAndGet(operations);
+	}
+
+	void finish(){
+		unfinished = partners - completed.get() - failed.get();
+		duration = System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * @return number of sessions of the round
+	 */
+	public int getPartners(){
+		return partners;
+	}
+
+	public int getCompleted(){
+		return completed.get();
+	}
+
+	public int getFailed(){
+		return failed.get();
+	}
+
+	/**
+	 * @return failed sessions that were abandoned because of a timeout
+	 */
+	public int getTimedOut(){
+		return timedOut.get();
+	}
+
+	/**
+	 * @return sessions that had not finished (or not even started) when the round ended
+	 */
+	public int getUnfinished(){
+		return duration < 0 ? partners - completed.get() - failed.get() : unfinished;
+	}
+
+	public int getOperationsSent(){
+		return operationsSent.get();
+	}
+
+	public int getOperationsReceived(){
+		return operationsReceived.get();
+	}
+
+	/**
+	 * @return number of operations exchanged in the round
+	 */
+	public int getOperationsTransferred(){
+		return operationsSent.get() + operationsReceived.get();
+	}
+
+	/**
+	 * @return duration of the round in milliseconds (-1 if it has not ended)
+	 */
+	public long getDuration(){
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return "SessionRoundStats [partners=" + partners + ", completed=" + getCompleted()
+				+ ", failed=" + getFailed() + ", timedOut=" + getTimedOut() + ", unfinished=" + getUnfinished()
+				+ ", operationsSent=" + getOperationsSent() + ", operationsReceived=" + getOperationsReceived()
+				+ ", duration=" + duration + "]";
+	}
+}
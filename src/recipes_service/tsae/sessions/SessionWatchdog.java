@@ -0,0 +1,83 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Abandons a TSAE session that lasts more than sessionTimeout: when the
+ * timeout expires the connection of the session is closed, so that the
+ * threads blocked reading or writing it fail with an IOException.
+ * Operations are applied one by one (in timestamp order for each
+ * server), so the operations received before the timeout stay in the
+ * log and in the summary, and the next session only sends the missing ones.
+ */
+class SessionWatchdog extends TimerTask {
+	private static final Timer timer = new Timer("TSAESessionWatchdog", true);
+
+	private Closeable connection = null;
+	private boolean expired = false;
+
+	/**
+	 * @param sessionTimeout: milliseconds until the session is abandoned (0: no timeout)
+	 */
+	SessionWatchdog(long sessionTimeout){
+		if (sessionTimeout > 0){
+			timer.schedule(this, sessionTimeout);
+		}
+	}
+
+	/**
+	 * connection is closed when the timeout expires
+	 * @param connection
+	 */
+	synchronized void watch(Closeable connection){
+		this.connection = connection;
+		if (expired){
+			close();
+		}
+	}
+
+	/**
+	 * @return true if the session has been abandoned
+	 */
+	synchronized boolean hasExpired(){
+		return expired;
+	}
+
+	public synchronized void run(){
+		expired = true;
+		close();
+	}
+
+	private void close(){
+		if (connection == null){
+			return;
+		}
+		try {
+			connection.close();
+		} catch (IOException e) {
+		}
+	}
+}
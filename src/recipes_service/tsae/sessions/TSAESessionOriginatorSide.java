@@ -21,20 +21,26 @@
 package recipes_service.tsae.sessions;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.TimerTask;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import recipes_service.ServerData;
 import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.Connection;
 import recipes_service.communication.Host;
+import recipes_service.communication.Hosts;
 import recipes_service.communication.Message;
 import recipes_service.communication.MessageAErequest;
 import recipes_service.communication.MessageEndTSAE;
-import recipes_service.communication.MessageOperation;
+import recipes_service.communication.MessageOperationBatch;
 import recipes_service.communication.MsgType;
 import recipes_service.data.Operation;
 import recipes_service.tsae.data_structures.TimestampMatrix;
@@ -67,17 +73,77 @@ public class TSAESessionOriginatorSide extends TimerTask{
 
 	/**
 	 * This method performs num TSAE sessions
-	 * with num random servers
+	 * with num servers (chosen by the PeerSelector of the server).
+	 * Sessions run concurrently (at most maxParallelSessions at the same time)
+	 * until all of them finish or the deadline of the round expires.
+	 * The log is purged once, at the end of the round.
 	 * @param num
+	 * @return statistics of the round (null if the server is disconnected)
 	 */
-	public void sessionWithN(int num){
+	public SessionRoundStats sessionWithN(int num){
 		if(!SimulationData.getInstance().isConnected())
-			return;
-		List<Host> partnersTSAEsession= serverData.getRandomPartners(num);
-		Host n;
-		for(int i=0; i<partnersTSAEsession.size(); i++){
-			n=partnersTSAEsession.get(i);
-			sessionTSAE(n);
+			return null;
+		List<Host> partnersTSAEsession= serverData.getPeerSelector().selectPartners(serverData, num);
+		SessionRoundStats stats = new SessionRoundStats(partnersTSAEsession.size());
+		long deadline = Long.MAX_VALUE;
+		if (serverData.getSessionRoundDeadline() > 0){
+			deadline = System.currentTimeMillis() + serverData.getSessionRoundDeadline();
+		}
+		int parallelism = Math.max(Math.min(serverData.getMaxParallelSessions(), partnersTSAEsession.size()), 1);
+		// a session blocked in I/O can only be left behind if it runs in another thread
+		if (parallelism > 1 || deadline != Long.MAX_VALUE){
+			sessionsInParallel(partnersTSAEsession, parallelism, deadline, stats);
+		} else {
+			Host n;
+			for(int i=0; i<partnersTSAEsession.size(); i++){
+				n=partnersTSAEsession.get(i);
+				sessionTSAE(n, stats);
+			}
+		}
+		// operations acknowledged by all servers are purged once per round
+		if (stats.getCompleted() > 0){
+			serverData.purgeLog();
+		}
+		stats.finish();
+		LSimLogger.log(Level.DEBUG, "[TSAESessionOriginatorSide] " + stats);
+		return stats;
+	}
+
+	/**
+	 * performs a TSAE session with each partner. parallelism threads (of the
+	 * execution mode of the server) take the partners one after the other.
+	 * Waits until all sessions finish or deadline expires: sessions that have
+	 * not started by then are not done, and the running ones are not waited for.
+	 * @param partners
+	 * @param parallelism: maximum number of simultaneous sessions
+	 * @param deadline: time (in milliseconds) when the round ends
+	 * @param stats
+	 */
+	private void sessionsInParallel(List<Host> partners, int parallelism, final long deadline, final SessionRoundStats stats){
+		final Queue<Host> pending = new ConcurrentLinkedQueue<Host>(partners);
+		final CountDownLatch finished = new CountDownLatch(partners.size());
+		Runnable worker = new Runnable(){
+			public void run(){
+				Host partner;
+				while ((partner = pending.poll()) != null){
+					if (System.currentTimeMillis() < deadline){
+						sessionTSAE(partner, stats);
+					}
+					finished.countDown();
+				}
+			}
+		};
+		for (int i = 0; i < parallelism && i < partners.size(); i++){
+			serverData.getExecutionMode().start(worker, "TSAESessionOriginatorSide", true);
+		}
+		try {
+			if (deadline == Long.MAX_VALUE){
+				finished.await();
+			} else {
+				finished.await(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 	
@@ -85,83 +151,173 @@ public class TSAESessionOriginatorSide extends TimerTask{
 	 * This method perform a TSAE session
 	 * with the partner server n
 	 * @param n
+	 * @param stats: statistics of the round the session belongs to
 	 */
-	private void sessionTSAE(Host n) {
+	private void sessionTSAE(Host n, SessionRoundStats stats) {
         int current_session_number = session_number.incrementAndGet();
         if (n == null) return;
 	LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] TSAE session");
 		
+		Hosts hosts = serverData.getHosts();
+		Connection connection = null;
+		PeerLatencies latencies = serverData.getPeerLatencies();
+		long start = System.nanoTime();
+		// a session that lasts more than sessionTimeout is abandoned
+		SessionWatchdog watchdog = new SessionWatchdog(serverData.getSessionTimeout());
 		try {
-			Socket socket = new Socket(n.getAddress(), n.getPort());
-			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream());
-			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream());
-
-			TimestampVector localSummary = null;
-			TimestampMatrix localAck = null;
-
-			// Send to partner: local's summary and ack
-			serverData.refreshAck();
-			localSummary = serverData.getSummaryClone();
-			localAck = serverData.getAckClone();
-			Message	msg = new MessageAErequest(localSummary, localAck);
-			msg.setSessionNumber(current_session_number);
-            out.writeObject(msg);
-			LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
-
-            // receive operations from partner
-			msg = (Message) in.readObject();
-			LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
-			while (msg.type() == MsgType.OPERATION){
-				MessageOperation msgOp = (MessageOperation) msg;
-				Operation op = msgOp.getOperation();
-				serverData.applyOperation(op);
-				msg = (Message) in.readObject();
-				LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
+			// connections are reused by the following sessions with the same partner
+			connection = hosts.getConnection(n);
+			if (!connection.isReused()){
+				latencies.connected(n.getId(), connection.getConnectTime());
 			}
-
-            // receive partner's summary and ack
-			if (msg.type() == MsgType.AE_REQUEST){
-				MessageAErequest msgAE = (MessageAErequest) msg;
-				TimestampVector partnerSummary = msgAE.getSummary();
-				TimestampMatrix partnerAck = msgAE.getAck();
-				serverData.updateAckMax(partnerAck);
-				
-				// send operations
-				if (partnerSummary != null) {
-					List<Operation> operations = serverData.listNewerOperations(partnerSummary);
-					for (Iterator<Operation> it = operations.iterator(); it.hasNext();) {
-						Operation op = it.next();
-						msg = new MessageOperation(op);
-						msg.setSessionNumber(current_session_number);
-						out.writeObject(msg);
-						LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
-					}
-				}
-
-				// send and "end of TSAE session" message
-				msg = new MessageEndTSAE();  
-				msg.setSessionNumber(current_session_number);
-	            out.writeObject(msg);					
-				LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
-
-				// receive message to inform about the ending of the TSAE session
-				msg = (Message) in.readObject();
-				LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
-				if (msg.type() == MsgType.END_TSAE){
-					serverData.purgeLog();
+			watchdog.watch(connection);
+			boolean completed;
+			try {
+				completed = session(connection, current_session_number, stats);
+			} catch (IOException e) {
+				if (!connection.isReused() || connection.isAnswered() || e instanceof SocketTimeoutException || watchdog.hasExpired()){
+					throw e;
 				}
-
-			}			
-			socket.close();
+				// the partner closed the idle connection: retry with a new connection
+				connection.close();
+				connection = hosts.newConnection(n);
+				latencies.connected(n.getId(), connection.getConnectTime());
+				watchdog.watch(connection);
+				completed = session(connection, current_session_number, stats);
+			}
+			if (completed){
+				hosts.releaseConnection(connection);
+				stats.sessionCompleted();
+			} else {
+				connection.close();
+				stats.sessionFailed();
+			}
 		} catch (ClassNotFoundException e) {
 			// TODO Auto-generated catch block
 			LSimLogger.log(Level.FATAL, "[TSAESessionOriginatorSide] [session: "+current_session_number+"]" + e.getMessage());
 			e.printStackTrace();
             System.exit(1);
 		}catch (IOException e) {
+			// closing the socket also stops the reader of a pipelined session
+			if (connection != null){
+				connection.close();
+			}
+			if (e instanceof SocketTimeoutException || watchdog.hasExpired()){
+				LSimLogger.log(Level.DEBUG, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] timed out: "+n);
+				serverData.sessionTimedOut();
+				stats.sessionTimedOut();
+			} else {
+				stats.sessionFailed();
+			}
+			if (SimulationData.getInstance().isConnected()){
+				// a partner that fails is considered (at least) as far as the read timeout
+				latencies.answered(n.getId(), Math.max((System.nanoTime() - start) / 1e6, serverData.getReadTimeout()));
+			}
+	    } finally {
+	    	watchdog.cancel();
 	    }
 
 		
 		LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] End TSAE session");
 	}
+
+	/**
+	 * performs a TSAE session on connection
+	 * @return true if the session has been completed (and
+	 * connection can be used by another session)
+	 */
+	private boolean session(Connection connection, int current_session_number, SessionRoundStats stats) throws IOException, ClassNotFoundException{
+		ObjectInputStream_DS in = connection.getInputStream();
+		ObjectOutputStream_DS out = connection.getOutputStream();
+		boolean pipelined = serverData.isPipelinedSessions();
+
+		TimestampVector localSummary = null;
+		TimestampMatrix localAck = null;
+
+		// Send to partner: local's summary and ack
+		serverData.refreshAck();
+		localSummary = serverData.getSummaryClone();
+		localAck = serverData.getAckClone();
+		// partner compresses its messages only if asked to
+		Message	msg = new MessageAErequest(localSummary, localAck, pipelined, serverData.isCompression());
+		msg.setSessionNumber(current_session_number);
+		long sent = System.nanoTime();
+            out.writeObject(msg);
+		LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
+
+		OperationReader reader = new OperationReader(in, serverData, "TSAESessionOriginatorSide", current_session_number);
+		msg = (Message) in.readObject();
+		connection.setAnswered();
+		serverData.getPeerLatencies().answered(connection.getHost().getId(), (System.nanoTime() - sent) / 1e6);
+		if (pipelined){
+			// partner sends its summary and ack before its operations
+			LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
+		} else {
+	            // receive operations from partner
+			msg = reader.receive(msg);
+		}
+
+            // receive partner's summary and ack
+		if (msg.type() == MsgType.AE_REQUEST){
+			MessageAErequest msgAE = (MessageAErequest) msg;
+			TimestampVector partnerSummary = msgAE.getSummary();
+			TimestampMatrix partnerAck = msgAE.getAck();
+			serverData.updateAckMax(partnerAck);
+			// partner has accepted to compress: local messages are also compressed
+			out.setCompression(msgAE.isCompression(), serverData.getCompressionThreshold());
+
+			if (pipelined){
+				// receive operations from partner while local operations are sent
+				reader.start();
+			}
+
+			// send operations
+			stats.operationsSent(sendOperations(out, partnerSummary, current_session_number));
+
+			// send and "end of TSAE session" message
+			msg = new MessageEndTSAE();  
+			msg.setSessionNumber(current_session_number);
+	            out.writeObject(msg);					
+			LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
+
+			// receive message to inform about the ending of the TSAE session
+			if (pipelined){
+				msg = reader.lastMessage();
+			} else {
+				msg = (Message) in.readObject();
+				LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] received message: "+msg);
+			}
+			stats.operationsReceived(reader.getReceived());
+			if (msg == null && reader.getFailure() != null){
+				throw reader.getFailure();
+			}
+			if (msg != null && msg.type() == MsgType.END_TSAE){
+				// objects sent in this session are not referenced by the next one
+				out.reset();
+				return true;
+			}
+
+		}
+		return false;
+	}
+
+	/**
+	 * sends to the partner the operations that are newer than its summary
+	 * (in batches of, at most, operationBatchSize operations)
+	 * @return number of sent operations
+	 */
+	private int sendOperations(ObjectOutputStream_DS out, TimestampVector partnerSummary, int current_session_number) throws IOException{
+		if (partnerSummary == null) {
+			return 0;
+		}
+		List<Operation> operations = serverData.listNewerOperations(partnerSummary);
+		List<Message> batches = MessageOperationBatch.split(operations, serverData.getOperationBatchSize());
+		for (Iterator<Message> it = batches.iterator(); it.hasNext();) {
+			Message msg = it.next();
+			msg.setSessionNumber(current_session_number);
+			out.writeObject(msg);
+			LSimLogger.log(Level.TRACE, "[TSAESessionOriginatorSide] [session: "+current_session_number+"] sent message: "+msg);
+		}
+		return operations.size();
+	}
 }       
@@ -0,0 +1,147 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+
+import communication.FrameChannel;
+import communication.ObjectOutputStream_DS;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.library.api.LSimLogger;
+import recipes_service.ServerData;
+import recipes_service.communication.Message;
+import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageEndTSAE;
+import recipes_service.communication.MsgType;
+
+/**
+ * Partner side of the TSAE sessions of a connection served by a
+ * PartnerEventLoop. It runs the same protocol as TSAESessionPartnerSide,
+ * as a state machine driven by the received messages:
+ * 
+ * 	WAITING_REQUEST --AE request / send summary, ack and operations--> RECEIVING_OPERATIONS
+ * 	RECEIVING_OPERATIONS --operations / apply them--> RECEIVING_OPERATIONS
+ * 	RECEIVING_OPERATIONS --end / send end, purge log--> WAITING_REQUEST
+ */
+class TSAESessionPartnerChannel {
+	private enum State {WAITING_REQUEST, RECEIVING_OPERATIONS}
+
+	private FrameChannel channel;
+	private ServerData serverData;
+	private State state = State.WAITING_REQUEST;
+	private int current_session_number = -1;
+	// time (in milliseconds) of the last received message
+	private long lastActivity = System.currentTimeMillis();
+	// time (in milliseconds) when the current session started
+	private long sessionStart;
+
+	TSAESessionPartnerChannel(FrameChannel channel, ServerData serverData){
+		this.channel = channel;
+		this.serverData = serverData;
+	}
+
+	FrameChannel getChannel(){
+		return channel;
+	}
+
+	long getLastActivity(){
+		return lastActivity;
+	}
+
+	/**
+	 * @param now: current time (in milliseconds)
+	 * @return true if the current session has waited for the originator more than
+	 * readTimeout or has lasted more than sessionTimeout (and has to be abandoned)
+	 */
+	boolean isTimedOut(long now){
+		if (state != State.RECEIVING_OPERATIONS){
+			return false;
+		}
+		return (serverData.getReadTimeout() > 0 && now - lastActivity > serverData.getReadTimeout())
+				|| (serverData.getSessionTimeout() > 0 && now - sessionStart > serverData.getSessionTimeout());
+	}
+
+	/**
+	 * processes the messages that have completely arrived
+	 * @return false if the connection has to be closed
+	 */
+	boolean onReadable() throws IOException, ClassNotFoundException{
+		boolean open = channel.receive();
+		Message msg;
+		while ((msg = (Message) channel.readObject()) != null){
+			lastActivity = System.currentTimeMillis();
+			LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+msg.getSessionNumber()+"] received message: "+ msg);
+			if (!handle(msg)){
+				return false;
+			}
+		}
+		return open;
+	}
+
+	private boolean handle(Message msg) throws IOException{
+		ObjectOutputStream_DS out = channel.getOutputStream();
+		switch (state){
+		case WAITING_REQUEST:
+			if (msg.type() != MsgType.AE_REQUEST){
+				return false;
+			}
+			current_session_number = msg.getSessionNumber();
+			LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] TSAE session");
+			MessageAErequest msgAE = (MessageAErequest) msg;
+			serverData.updateAckMax(msgAE.getAck());
+			// messages are compressed if both sides want it
+			boolean compression = msgAE.isCompression() && serverData.isCompression();
+			out.setCompression(compression, serverData.getCompressionThreshold());
+			// the originator decides the kind of session: in a pipelined session
+			// local's summary and ack are sent before local operations
+			if (msgAE.isPipelined()){
+				TSAESessionPartnerSide.sendSummaryAndAck(serverData, out, compression, current_session_number);
+				TSAESessionPartnerSide.sendOperations(serverData, out, msgAE.getSummary(), current_session_number);
+			} else {
+				TSAESessionPartnerSide.sendOperations(serverData, out, msgAE.getSummary(), current_session_number);
+				TSAESessionPartnerSide.sendSummaryAndAck(serverData, out, compression, current_session_number);
+			}
+			state = State.RECEIVING_OPERATIONS;
+			sessionStart = lastActivity;
+			return true;
+		case RECEIVING_OPERATIONS:
+			if (msg.type() == MsgType.OPERATION || msg.type() == MsgType.OPERATION_BATCH){
+				OperationReader.apply(serverData, msg);
+				return true;
+			}
+			if (msg.type() != MsgType.END_TSAE){
+				return false;
+			}
+			// all originator's operations have been received
+			msg = new MessageEndTSAE();
+			msg.setSessionNumber(current_session_number);
+			out.writeObject(msg);
+			LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] sent message: "+ msg);
+			serverData.purgeLog();
+			LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] End TSAE session");
+			// objects sent in this session are not referenced by the next one
+			out.reset();
+			state = State.WAITING_REQUEST;
+			return true;
+		}
+		return false;
+	}
+}
@@ -23,6 +23,7 @@ package recipes_service.tsae.sessions;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
@@ -31,10 +32,11 @@ import communication.ObjectInputStream_DS;
 import communication.ObjectOutputStream_DS;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import recipes_service.ServerData;
+import recipes_service.communication.Connection;
 import recipes_service.communication.Message;
 import recipes_service.communication.MessageAErequest;
 import recipes_service.communication.MessageEndTSAE;
-import recipes_service.communication.MessageOperation;
+import recipes_service.communication.MessageOperationBatch;
 import recipes_service.communication.MsgType;
 import recipes_service.data.Operation;
 import recipes_service.tsae.data_structures.TimestampMatrix;
@@ -48,84 +50,31 @@ import lsim.library.api.LSimLogger;
  * December 2012
  *
  */
-public class TSAESessionPartnerSide extends Thread {
+public class TSAESessionPartnerSide implements Runnable {
     
     private Socket socket = null;
     private ServerData serverData = null;
+    private int current_session_number = -1;
 	
 	public TSAESessionPartnerSide(Socket socket, ServerData serverData) {
-		super("TSAEPartnerSideThread");
 		this.socket = socket;
 		this.serverData = serverData;
 	}
 
 	public void run() {
 
-		Message msg = null;
-
-		int current_session_number = -1;
 		try {
 			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream());
 			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream());
 
-			// receive request from originator and update local state
-			// receive originator's summary and ack
-			msg = (Message) in.readObject();
-			current_session_number = msg.getSessionNumber();
-			LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] TSAE session");
-			LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] received message: "+ msg);
-
-				if (msg.type() == MsgType.AE_REQUEST){
-					MessageAErequest msgAE = (MessageAErequest) msg;
-					TimestampVector originatorSummary = msgAE.getSummary();
-					TimestampMatrix originatorAck = msgAE.getAck();
-					serverData.updateAckMax(originatorAck);
-				
-	            // send operations
-				if (originatorSummary != null) {
-					List<Operation> operations = serverData.listNewerOperations(originatorSummary);
-					for (Iterator<Operation> it = operations.iterator(); it.hasNext();) {
-						Operation op = it.next();
-						msg = new MessageOperation(op);
-						msg.setSessionNumber(current_session_number);
-						out.writeObject(msg);
-						LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] sent message: "+ msg);
-					}
-				}
-
-
-				// send to originator: local's summary and ack
-					serverData.refreshAck();
-					TimestampVector localSummary = serverData.getSummaryClone();
-					TimestampMatrix localAck = serverData.getAckClone();
-				msg = new MessageAErequest(localSummary, localAck);
-				msg.setSessionNumber(current_session_number);
-	 	        out.writeObject(msg);
-				LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] sent message: "+ msg);
-
-	            // receive operations
-				msg = (Message) in.readObject();
-				LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] received message: "+ msg);
-				while (msg.type() == MsgType.OPERATION){
-					MessageOperation msgOp = (MessageOperation) msg;
-					Operation op = msgOp.getOperation();
-					serverData.applyOperation(op);
-					msg = (Message) in.readObject();
-					LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] received message: "+ msg);
-				}
-				
-				// receive message to inform about the ending of the TSAE session
-				if (msg.type() == MsgType.END_TSAE){
-					// send and "end of TSAE session" message
-					msg = new MessageEndTSAE();
-					msg.setSessionNumber(current_session_number);
-		            out.writeObject(msg);					
-					LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] sent message: "+ msg);
-					serverData.purgeLog();
-				}
-				
+			// the originator keeps the connection to reuse it in its next
+			// TSAE sessions with this server: sessions are served one after
+			// the other until the connection is closed or stays idle for too long
+			socket.setSoTimeout(Connection.PARTNER_IDLE_TIME);
+			while (!serverData.end() && session(in, out)){
+				// objects sent in this session are not referenced by the next one
+				out.reset();
 			}
-			socket.close();		
 		} catch (ClassNotFoundException e) {
 			// TODO Auto-generated catch block
 			LSimLogger.log(Level.FATAL, "[TSAESessionPartnerSide] [session: "+current_session_number+"]" + e.getMessage());
@@ -133,7 +82,133 @@ public class TSAESessionPartnerSide extends Thread {
             System.exit(1);
 		}catch (IOException e) {
 	    }
+		// closing the socket also stops the reader of a pipelined session
+		try {
+			socket.close();
+		} catch (IOException e1) {
+		}
+	}
+
+	/**
+	 * serves a TSAE session started by the originator
+	 * @return true if the session has been completed (and the connection
+	 * can be used by another session)
+	 */
+	private boolean session(ObjectInputStream_DS in, ObjectOutputStream_DS out) throws IOException, ClassNotFoundException{
+		boolean completed = false;
+
+		// receive request from originator and update local state
+		// receive originator's summary and ack
+		Message msg = (Message) in.readObject();
+		current_session_number = msg.getSessionNumber();
+		LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] TSAE session");
+		LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] received message: "+ msg);
+
+			if (msg.type() == MsgType.AE_REQUEST){
+				// the session is abandoned if the originator stops answering or it lasts too long
+				SessionWatchdog watchdog = new SessionWatchdog(serverData.getSessionTimeout());
+				watchdog.watch(socket);
+				socket.setSoTimeout(serverData.getReadTimeout());
+				try {
+					completed = session(in, out, (MessageAErequest) msg);
+				} catch (IOException e) {
+					if (e instanceof SocketTimeoutException || watchdog.hasExpired()){
+						LSimLogger.log(Level.DEBUG, "[TSAESessionPartnerSide] [session: "+current_session_number+"] timed out");
+						serverData.sessionTimedOut();
+					}
+					throw e;
+				} finally {
+					watchdog.cancel();
+				}
+				socket.setSoTimeout(Connection.PARTNER_IDLE_TIME);
+			}
 		
 		LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] End TSAE session");
+		return completed;
+	}
+
+	/**
+	 * serves the TSAE session requested by msgAE
+	 * @return true if the session has been completed
+	 */
+	private boolean session(ObjectInputStream_DS in, ObjectOutputStream_DS out, MessageAErequest msgAE) throws IOException, ClassNotFoundException{
+		Message msg;
+		TimestampVector originatorSummary = msgAE.getSummary();
+		TimestampMatrix originatorAck = msgAE.getAck();
+		serverData.updateAckMax(originatorAck);
+		// the originator decides the kind of session
+		boolean pipelined = msgAE.isPipelined();
+		// messages are compressed if both sides want it
+		boolean compression = msgAE.isCompression() && serverData.isCompression();
+		out.setCompression(compression, serverData.getCompressionThreshold());
+		OperationReader reader = new OperationReader(in, serverData, "TSAESessionPartnerSide", current_session_number);
+
+		if (pipelined){
+			// send local's summary and ack first: originator starts sending
+			// its operations while it receives local operations
+			sendSummaryAndAck(serverData, out, compression, current_session_number);
+			reader.start();
+		}
+
+        // send operations
+		sendOperations(serverData, out, originatorSummary, current_session_number);
+
+		if (pipelined){
+			// wait until all originator's operations have been received
+			msg = reader.lastMessage();
+			if (msg == null && reader.getFailure() != null){
+				throw reader.getFailure();
+			}
+		} else {
+			// send to originator: local's summary and ack
+			sendSummaryAndAck(serverData, out, compression, current_session_number);
+
+            // receive operations
+			msg = reader.receive((Message) in.readObject());
+		}
+		
+		// receive message to inform about the ending of the TSAE session
+		if (msg != null && msg.type() == MsgType.END_TSAE){
+			// send and "end of TSAE session" message
+			msg = new MessageEndTSAE();
+			msg.setSessionNumber(current_session_number);
+            out.writeObject(msg);					
+			LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] sent message: "+ msg);
+			serverData.purgeLog();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * sends to the originator the local's summary and ack
+	 * (and whether local messages are compressed)
+	 */
+	static void sendSummaryAndAck(ServerData serverData, ObjectOutputStream_DS out, boolean compression, int current_session_number) throws IOException{
+		serverData.refreshAck();
+		TimestampVector localSummary = serverData.getSummaryClone();
+		TimestampMatrix localAck = serverData.getAckClone();
+		Message msg = new MessageAErequest(localSummary, localAck, false, compression);
+		msg.setSessionNumber(current_session_number);
+		out.writeObject(msg);
+		LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] sent message: "+ msg);
+	}
+
+	/**
+	 * sends to the originator the operations that are newer than its summary
+	 * (in batches of, at most, operationBatchSize operations)
+	 */
+	static void sendOperations(ServerData serverData, ObjectOutputStream_DS out, TimestampVector originatorSummary, int current_session_number) throws IOException{
+		if (originatorSummary == null) {
+			return;
+		}
+		List<Operation> operations = serverData.listNewerOperations(originatorSummary);
+		List<Message> batches = MessageOperationBatch.split(operations, serverData.getOperationBatchSize());
+		for (Iterator<Message> it = batches.iterator(); it.hasNext();) {
+			Message msg = it.next();
+			msg.setSessionNumber(current_session_number);
+			out.writeObject(msg);
+			LSimLogger.log(Level.TRACE, "[TSAESessionPartnerSide] [session: "+current_session_number+"] sent message: "+ msg);
+		}
 	}
 }
\ No newline at end of file
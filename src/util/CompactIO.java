@@ -0,0 +1,99 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of numbers and strings.
+ * Numbers are written as varints: 7 bits per byte, the highest bit
+ * set in all bytes but the last one. Signed numbers are zigzag encoded
+ * first, so that small negative numbers are also short.
+ */
+public class CompactIO {
+
+	private CompactIO(){
+	}
+
+	public static void writeVarLong(DataOutput out, long value) throws IOException{
+		while ((value & ~0x7FL) != 0){
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public static long readVarLong(DataInput in) throws IOException{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7){
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("Malformed varint");
+	}
+
+	public static void writeVarInt(DataOutput out, int value) throws IOException{
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException{
+		return (int) readVarLong(in);
+	}
+
+	public static void writeSignedVarLong(DataOutput out, long value) throws IOException{
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	public static long readSignedVarLong(DataInput in) throws IOException{
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * writes s (that may be null) as its length followed by its UTF-8 bytes
+	 */
+	public static void writeString(DataOutput out, String s) throws IOException{
+		if (s == null){
+			writeVarInt(out, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	public static String readString(DataInput in) throws IOException{
+		int length = readVarInt(in);
+		if (length == 0){
+			return null;
+		}
+		byte[] bytes = new byte[length - 1];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,61 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * zlib compression of the streams that carry a few large objects
+ * (e.g. the results sent to the TestServer).
+ * The reader finds out by itself whether a stream is compressed.
+ */
+public class Compression {
+	// first byte of a zlib stream (deflate, 32K window). Java serialization streams start with 0xAC
+	private static final int ZLIB_HEADER = 0x78;
+
+	private Compression(){
+	}
+
+	/**
+	 * @return a stream that compresses into out (it has to be closed to write the last bytes)
+	 */
+	public static OutputStream compress(OutputStream out){
+		return new DeflaterOutputStream(out);
+	}
+
+	/**
+	 * @return a stream with the contents of in, decompressed if in is compressed
+	 */
+	public static InputStream decompressIfNeeded(InputStream in) throws IOException{
+		PushbackInputStream pushback = new PushbackInputStream(in, 1);
+		int first = pushback.read();
+		if (first < 0){
+			return pushback;
+		}
+		pushback.unread(first);
+		return first == ZLIB_HEADER ? new InflaterInputStream(pushback) : pushback;
+	}
+}
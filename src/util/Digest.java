@@ -0,0 +1,68 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package util;
+
+/**
+ * 64-bit digests of the elements stored in the data structures.
+ *
+ * A structure digest is the sum of the digests of its elements, so it
+ * is updated in O(1) when an element is added (+) or removed (-), and
+ * it does not depend on the order in which elements were inserted.
+ * Digests only depend on the contents (never on identity hash codes),
+ * so the digests computed by different processes can be compared.
+ */
+public class Digest {
+
+	private Digest(){
+	}
+
+	/**
+	 * @param s
+	 * @return 64-bit FNV-1a hash of s (0 if s is null)
+	 */
+	public static long of(String s){
+		if (s == null){
+			return 0;
+		}
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++){
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * @return digest of the ordered pair (a, b)
+	 */
+	public static long combine(long a, long b){
+		return mix(a * 0x9e3779b97f4a7c15L + b);
+	}
+
+	/**
+	 * spreads the bits of x over the 64 bits (SplitMix64 finalizer)
+	 */
+	public static long mix(long x){
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+}